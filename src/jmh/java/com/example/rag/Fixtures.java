@@ -0,0 +1,58 @@
+package com.example.rag;
+
+import com.example.rag.model.SkincareDocument;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Canned inputs for the benchmarks: files under src/jmh/resources/fixtures, the bundled
+ * dataset, and seeded random vectors, so every run sees the same data without network access.
+ */
+public final class Fixtures {
+
+    public static final int DIMENSION = 1536;
+
+    private Fixtures() {
+    }
+
+    public static byte[] bytes(String name) throws IOException {
+        try (InputStream is = Fixtures.class.getClassLoader().getResourceAsStream("fixtures/" + name)) {
+            if (is == null) {
+                throw new IllegalStateException("Cannot find fixture " + name + " on classpath");
+            }
+            return is.readAllBytes();
+        }
+    }
+
+    public static SkincareDocument[] dataset() throws IOException {
+        try (InputStream is = Fixtures.class.getClassLoader().getResourceAsStream("skincare_dataset.json")) {
+            if (is == null) {
+                throw new IllegalStateException("Cannot find skincare_dataset.json on classpath");
+            }
+            return new ObjectMapper().readValue(is, SkincareDocument[].class);
+        }
+    }
+
+    /**
+     * Unit-length vectors with Gaussian components, like real embeddings.
+     */
+    public static float[][] randomVectors(int count, int dimension, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][dimension];
+        for (float[] v : vectors) {
+            double norm = 0;
+            for (int i = 0; i < dimension; i++) {
+                v[i] = (float) random.nextGaussian();
+                norm += v[i] * v[i];
+            }
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < dimension; i++) {
+                v[i] *= scale;
+            }
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.rag.ingest;
+
+import com.example.rag.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing an OpenAI embeddings response (one 1536-dimension vector) in both encodings.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmbeddingParseBenchmark {
+
+    @Param({"float", "base64"})
+    public String encoding;
+
+    private EmbeddingClient client;
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws Exception {
+        client = new EmbeddingClient("unused", EmbeddingClient.EncodingFormat.parse(encoding));
+        response = Fixtures.bytes("embeddings-" + encoding + ".json");
+    }
+
+    @Benchmark
+    public Vector[] readEmbeddings() throws Exception {
+        return client.readEmbeddings(response, 1);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.rag.ingest;
+
+import com.example.rag.Fixtures;
+import com.example.rag.model.SkincareDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedding text and content hash for every document of the dataset, as done on each ingestion run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmbeddingTextBenchmark {
+
+    private SkincareDocument[] documents;
+
+    @Setup
+    public void setUp() throws Exception {
+        documents = Fixtures.dataset();
+    }
+
+    @Benchmark
+    public void buildEmbeddingText(Blackhole bh) {
+        for (SkincareDocument doc : documents) {
+            bh.consume(DatasetIngestionRunner.buildEmbeddingText(doc));
+        }
+    }
+
+    @Benchmark
+    public void buildEmbeddingTextAndHash(Blackhole bh) {
+        for (SkincareDocument doc : documents) {
+            bh.consume(DatasetIngestionRunner.contentHash(DatasetIngestionRunner.buildEmbeddingText(doc)));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.rag.ingest;
+
+import com.example.rag.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Top-5 search in the in-process store over random unit vectors, per quantization.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LocalVectorSearchBenchmark {
+
+    private static final String COLLECTION = "bench";
+    private static final int QUERIES = 64;
+
+    @Param({"10000"})
+    public int points;
+
+    @Param({"NONE", "INT8", "BINARY"})
+    public Quantization quantization;
+
+    private Path originalsDir;
+    private LocalVectorStore store;
+    private Vector[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        originalsDir = Files.createTempDirectory("bench-originals");
+        store = new LocalVectorStore(quantization, 3, originalsDir);
+        store.ensureCollection(COLLECTION);
+
+        float[][] vectors = Fixtures.randomVectors(points, Fixtures.DIMENSION, 1);
+        List<QdrantPoint> batch = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            batch.add(new QdrantPoint(i, Vector.of(vectors[i]), Map.of("doc_id", "doc-" + i)));
+        }
+        store.upsertBatch(COLLECTION, batch);
+
+        float[][] q = Fixtures.randomVectors(QUERIES, Fixtures.DIMENSION, 2);
+        queries = new Vector[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = Vector.of(q[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(originalsDir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<SearchResult> search() {
+        Vector query = queries[next++ & (QUERIES - 1)];
+        return store.search(COLLECTION, query, 5, SearchFilter.NONE);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.rag.ingest;
+
+import com.example.rag.Fixtures;
+import com.example.rag.model.SkincareDocument;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Qdrant request and response JSON: the upsert body for the whole dataset, a filtered
+ * search body, and reading a five-hit search response.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QdrantJsonCodecBenchmark {
+
+    private QdrantJsonCodec codec;
+    private List<QdrantPoint> points;
+    private Vector question;
+    private SearchFilter filter;
+    private byte[] searchResponse;
+    private final byte[] sink = new byte[8192];
+
+    @Setup
+    public void setUp() throws Exception {
+        codec = new QdrantJsonCodec(new ObjectMapper());
+
+        SkincareDocument[] documents = Fixtures.dataset();
+        float[][] vectors = Fixtures.randomVectors(documents.length, Fixtures.DIMENSION, 1);
+        points = new ArrayList<>(documents.length);
+        for (int i = 0; i < documents.length; i++) {
+            SkincareDocument doc = documents[i];
+            String hash = DatasetIngestionRunner.contentHash(DatasetIngestionRunner.buildEmbeddingText(doc));
+            points.add(new QdrantPoint(DatasetIngestionRunner.pointId(doc.getId()),
+                    Vector.of(vectors[i]), DatasetIngestionRunner.buildPayload(doc, hash)));
+        }
+
+        question = Vector.of(Fixtures.randomVectors(1, Fixtures.DIMENSION, 2)[0]);
+        filter = SearchFilter.NONE
+                .anyOfOrMissing("skin_type", List.of("dry", "sensitive"))
+                .anyOf("type", List.of("product"));
+        searchResponse = Fixtures.bytes("qdrant-search-response.json");
+    }
+
+    @Benchmark
+    public long upsertBody() throws Exception {
+        long total = 0;
+        try (InputStream in = codec.upsertStream(points)) {
+            int n;
+            while ((n = in.read(sink)) > 0) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public byte[] searchBody() throws Exception {
+        return codec.searchBody(question, 10, 3.0, filter);
+    }
+
+    @Benchmark
+    public List<SearchResult> readSearchResults() throws Exception {
+        return codec.readSearchResults(new ByteArrayInputStream(searchResponse));
+    }
+}
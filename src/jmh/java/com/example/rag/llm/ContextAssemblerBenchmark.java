@@ -0,0 +1,55 @@
+package com.example.rag.llm;
+
+import com.example.rag.Fixtures;
+import com.example.rag.ingest.QdrantJsonCodec;
+import com.example.rag.ingest.SearchResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prompt assembly for five hits: deduplication, token counting and, with a small budget, trimming.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContextAssemblerBenchmark {
+
+    private static final String QUESTION =
+            "I am 35 with dry sensitive skin, what evening routine can I build from this box?";
+
+    // 3000 is the default budget (everything fits); 400 forces trimming and dropping
+    @Param({"3000", "400"})
+    public int tokenBudget;
+
+    private ContextAssembler assembler;
+    private List<SearchResult> hits;
+
+    @Setup
+    public void setUp() throws Exception {
+        assembler = new ContextAssembler(tokenBudget);
+        hits = new QdrantJsonCodec(new ObjectMapper())
+                .readSearchResults(new ByteArrayInputStream(Fixtures.bytes("qdrant-search-response.json")));
+    }
+
+    @Benchmark
+    public ContextAssembler.Prompt assemble() {
+        return assembler.assemble(QUESTION, hits);
+    }
+}
@@ -1,40 +1,69 @@
 package com.example.rag;
 
+import com.example.rag.api.BatchAnswerer;
+import com.example.rag.config.RagConfig;
+import com.example.rag.http.HttpTransport;
+import com.example.rag.ingest.CachingEmbedder;
+import com.example.rag.ingest.Embedder;
 import com.example.rag.ingest.EmbeddingClient;
-import com.example.rag.ingest.QdrantService;
+import com.example.rag.ingest.HybridRetriever;
+import com.example.rag.ingest.SearchFilter;
 import com.example.rag.ingest.SearchResult;
+import com.example.rag.ingest.VectorStore;
+import com.example.rag.llm.ContextAssembler;
 import com.example.rag.llm.LlmClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 /**
  * Simple CLI runner:
  * - reads a question from stdin
  * - generates embedding
- * - searches Qdrant
+ * - searches the vector store (Qdrant or in-process), fused with keyword search
  * - calls LLM with context
  * - prints the answer
+ *
+ * With {@code --batch questions.txt [answers.ndjson]} it answers every line of the file
+ * instead (see {@link BatchAnswerer}) and writes one JSON answer per line to the output
+ * file or stdout; ASK_BATCH_CONCURRENCY bounds parallel LLM calls.
  */
 public class RagCliRunner {
 
     private static final Logger log = LoggerFactory.getLogger(RagCliRunner.class);
 
-    private static final String COLLECTION_NAME = "skincare_box";
-
     public static void main(String[] args) throws Exception {
         String apiKey = System.getenv("OPENAI_API_KEY");
         if (apiKey == null || apiKey.isBlank()) {
             throw new IllegalStateException("OPENAI_API_KEY env variable is not set");
         }
 
-        EmbeddingClient embeddingClient = new EmbeddingClient(apiKey);
-        QdrantService qdrantService = new QdrantService();
-        LlmClient llmClient = new LlmClient(apiKey);
+        HttpTransport transport = RagConfig.createTransport();
+        EmbeddingClient embeddingClient = new EmbeddingClient(
+                apiKey, EmbeddingClient.EncodingFormat.parse(System.getenv("OPENAI_EMBEDDING_ENCODING")),
+                RagConfig.openAiBaseUrl(), transport);
+        Embedder embedder = new CachingEmbedder(embeddingClient, 16L * 1024 * 1024, Duration.ofHours(1));
+        VectorStore vectorStore = RagConfig.createVectorStore(System.getenv("VECTOR_STORE"), embeddingClient, transport);
+        LlmClient llmClient = new LlmClient(apiKey, RagConfig.openAiBaseUrl(), RagConfig.llmTransport(transport));
+        HybridRetriever retriever = RagConfig.createRetriever(embedder, vectorStore);
+        ContextAssembler contextAssembler = RagConfig.createContextAssembler();
+
+        if (args.length >= 2 && args[0].equals("--batch")) {
+            runBatch(new BatchAnswerer(retriever, contextAssembler, llmClient, batchConcurrency()),
+                    Path.of(args[1]), args.length >= 3 ? Path.of(args[2]) : null);
+            return;
+        }
 
         Scanner scanner = new Scanner(System.in);
         System.out.println("Enter your skincare question (or 'exit' to quit):");
@@ -47,41 +76,22 @@ public class RagCliRunner {
                 break;
             }
 
-            // 1. Embed the question
-            log.info("Creating embedding for the question...");
-            List<Double> questionVector = embeddingClient.embed(question);
-
-            // 2. Search in Qdrant
-            log.info("Searching in Qdrant...");
-            List<SearchResult> hits = qdrantService.search(COLLECTION_NAME, questionVector, 5);
+            // 1-2. Embed the question and search (vector search fused with keyword search)
+            log.info("Retrieving documents for the question...");
+            List<SearchResult> hits = retriever.retrieve(question, 5, SearchFilter.NONE).hits();
 
             if (hits.isEmpty()) {
                 System.out.println("No relevant documents found in the knowledge base.");
                 continue;
             }
 
-            // 3. Build context string from payloads
-            String context = buildContextFromHits(hits);
-
-            // 4. Compose prompts
-            String systemPrompt = """
-                    You are a skincare assistant specializing in Korean multi-step routines.
-                    Answer in English, in a clear and practical way.
-                    Use ONLY the provided context about products, ingredients, routines and rules.
-                    If the information is missing, say that it is not present in the dataset.
-                    """;
-
-            String userPrompt = """
-                    User question:
-                    %s
-
-                    Relevant context from knowledge base:
-                    %s
-                    """.formatted(question, context);
+            // 3. Compose prompts within the token budget
+            ContextAssembler.Prompt prompt = contextAssembler.assemble(question, hits);
+            log.info("Prompt: {} tokens from {} hits", prompt.promptTokens(), prompt.usedHits().size());
 
-            // 5. Call LLM
+            // 4. Call LLM
             log.info("Calling LLM with context...");
-            String answer = llmClient.askWithContext(systemPrompt, userPrompt);
+            String answer = llmClient.askWithContext(prompt.systemPrompt(), prompt.userPrompt());
 
             System.out.println("\n--- RAG answer ---");
             System.out.println(answer);
@@ -89,43 +99,39 @@ public class RagCliRunner {
         }
     }
 
-    /**
-     * Build a single text block from Qdrant search hits.
-     */
-    private static String buildContextFromHits(List<SearchResult> hits) {
-        return hits.stream()
-                .map(hit -> {
-                    Map<String, Object> p = hit.getPayload();
-
-                    Object docId = p.get("doc_id");
-                    Object type = p.get("type");
-                    Object title = p.get("title");
-                    Object text = p.get("text");
-                    Object concerns = p.get("concerns");
-                    Object skinType = p.get("skin_type");
-                    Object ageRange = p.get("age_range");
-
-                    StringBuilder sb = new StringBuilder();
-                    sb.append("Document: ").append(docId).append("\n");
-                    sb.append("Type: ").append(type).append("\n");
-                    if (title != null) {
-                        sb.append("Title: ").append(title).append("\n");
-                    }
-                    if (skinType != null) {
-                        sb.append("Skin type: ").append(skinType).append("\n");
-                    }
-                    if (concerns != null) {
-                        sb.append("Concerns: ").append(concerns).append("\n");
-                    }
-                    if (ageRange != null) {
-                        sb.append("Age range: ").append(ageRange).append("\n");
-                    }
-                    sb.append("Text: ").append(text).append("\n");
-
-                    sb.append("Score: ").append(hit.getScore()).append("\n");
-
-                    return sb.toString();
-                })
-                .collect(Collectors.joining("\n---------------------\n"));
+    private static void runBatch(BatchAnswerer batchAnswerer, Path questionsFile, Path outputFile) throws Exception {
+        List<String> questions;
+        try (Stream<String> lines = Files.lines(questionsFile)) {
+            questions = lines.map(String::trim).filter(line -> !line.isEmpty()).toList();
+        }
+        log.info("Answering {} questions from {}", questions.size(), questionsFile);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        OutputStream out = outputFile == null ? System.out : Files.newOutputStream(outputFile);
+        AtomicInteger failed = new AtomicInteger();
+        try {
+            batchAnswerer.answerAll(questions, answer -> {
+                if (answer.error() != null) {
+                    failed.incrementAndGet();
+                }
+                try {
+                    out.write(objectMapper.writeValueAsBytes(answer));
+                    out.write('\n');
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } finally {
+            if (outputFile != null) {
+                out.close();
+            }
+        }
+        log.info("Batch done: {} answered, {} failed", questions.size() - failed.get(), failed.get());
+    }
+
+    private static int batchConcurrency() {
+        String value = System.getenv("ASK_BATCH_CONCURRENCY");
+        return value == null || value.isBlank() ? 8 : Integer.parseInt(value.trim());
     }
 }
@@ -0,0 +1,26 @@
+package com.example.rag.api;
+
+import java.util.List;
+
+/**
+ * Request DTO for /api/ask/batch endpoint.
+ */
+public class AskBatchRequest {
+
+    private List<String> questions;
+
+    public AskBatchRequest() {
+    }
+
+    public AskBatchRequest(List<String> questions) {
+        this.questions = questions;
+    }
+
+    public List<String> getQuestions() {
+        return questions;
+    }
+
+    public void setQuestions(List<String> questions) {
+        this.questions = questions;
+    }
+}
@@ -1,11 +1,19 @@
 package com.example.rag.api;
 
+import java.util.List;
+
 /**
  * Request DTO for /api/ask endpoint.
+ * The optional lists narrow retrieval to matching documents (see QuestionFilters).
  */
 public class AskRequest {
 
     private String question;
+    private List<String> skinTypes;
+    private List<String> concerns;
+    private List<String> types;
+    private List<String> ageRanges;
+    private boolean timings;   // include the timing breakdown in the response
 
     public AskRequest() {
     }
@@ -21,4 +29,44 @@ public class AskRequest {
     public void setQuestion(String question) {
         this.question = question;
     }
+
+    public List<String> getSkinTypes() {
+        return skinTypes;
+    }
+
+    public void setSkinTypes(List<String> skinTypes) {
+        this.skinTypes = skinTypes;
+    }
+
+    public List<String> getConcerns() {
+        return concerns;
+    }
+
+    public void setConcerns(List<String> concerns) {
+        this.concerns = concerns;
+    }
+
+    public List<String> getTypes() {
+        return types;
+    }
+
+    public void setTypes(List<String> types) {
+        this.types = types;
+    }
+
+    public List<String> getAgeRanges() {
+        return ageRanges;
+    }
+
+    public void setAgeRanges(List<String> ageRanges) {
+        this.ageRanges = ageRanges;
+    }
+
+    public boolean isTimings() {
+        return timings;
+    }
+
+    public void setTimings(boolean timings) {
+        this.timings = timings;
+    }
 }
@@ -1,5 +1,7 @@
 package com.example.rag.api;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 import java.util.Map;
 
@@ -11,6 +13,9 @@ public class AskResponse {
 
     private String answer;
     private List<Map<String, Object>> contextDocuments;
+    private Integer promptTokens;   // null when no LLM call was made
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private AskTimings timings;     // only when asked for
 
     public AskResponse() {
     }
@@ -35,4 +40,20 @@ public class AskResponse {
     public void setContextDocuments(List<Map<String, Object>> contextDocuments) {
         this.contextDocuments = contextDocuments;
     }
+
+    public Integer getPromptTokens() {
+        return promptTokens;
+    }
+
+    public void setPromptTokens(Integer promptTokens) {
+        this.promptTokens = promptTokens;
+    }
+
+    public AskTimings getTimings() {
+        return timings;
+    }
+
+    public void setTimings(AskTimings timings) {
+        this.timings = timings;
+    }
 }
@@ -0,0 +1,97 @@
+package com.example.rag.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the time of one /api/ask request went, for explaining a single slow request.
+ *
+ * Stages use the names of the rag.ask.stage metric (embed, vector_search, keyword_search,
+ * cache_lookup, context, llm) and appear in the order they finished; stages that didn't
+ * run are absent. Token counts come from the chat API. vectorScores (cosine similarity) and
+ * keywordScores (BM25) are each retrieval leg's candidate scores, best first, before fusion.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AskTimings {
+
+    private final Map<String, Double> stagesMs = new LinkedHashMap<>();
+    private double totalMs;
+    private Integer promptTokens;
+    private Integer completionTokens;
+    private List<Double> vectorScores;
+    private List<Double> keywordScores;
+    private boolean cacheHit;
+
+    public void recordStage(String stage, Duration time) {
+        stagesMs.put(stage, millis(time));
+    }
+
+    public Map<String, Double> getStagesMs() {
+        return stagesMs;
+    }
+
+    public double getTotalMs() {
+        return totalMs;
+    }
+
+    public void setTotal(Duration time) {
+        this.totalMs = millis(time);
+    }
+
+    public Integer getPromptTokens() {
+        return promptTokens;
+    }
+
+    public void setPromptTokens(Integer promptTokens) {
+        this.promptTokens = promptTokens;
+    }
+
+    public Integer getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public void setCompletionTokens(Integer completionTokens) {
+        this.completionTokens = completionTokens;
+    }
+
+    public List<Double> getVectorScores() {
+        return vectorScores;
+    }
+
+    public void setVectorScores(List<Double> vectorScores) {
+        this.vectorScores = vectorScores;
+    }
+
+    public List<Double> getKeywordScores() {
+        return keywordScores;
+    }
+
+    public void setKeywordScores(List<Double> keywordScores) {
+        this.keywordScores = keywordScores;
+    }
+
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    public void setCacheHit(boolean cacheHit) {
+        this.cacheHit = cacheHit;
+    }
+
+    @Override
+    public String toString() {
+        return "total=" + totalMs + "ms stages=" + stagesMs
+                + " promptTokens=" + promptTokens + " completionTokens=" + completionTokens
+                + " vectorScores=" + vectorScores + " keywordScores=" + keywordScores
+                + " cacheHit=" + cacheHit;
+    }
+
+    // Milliseconds with one decimal
+    private static double millis(Duration time) {
+        return Math.round(time.toNanos() / 100_000.0) / 10.0;
+    }
+}
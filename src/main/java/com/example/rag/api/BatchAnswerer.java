@@ -0,0 +1,146 @@
+package com.example.rag.api;
+
+import com.example.rag.ingest.HybridRetriever;
+import com.example.rag.ingest.SearchResult;
+import com.example.rag.llm.ContextAssembler;
+import com.example.rag.llm.LlmClient;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Answers many questions in one go, for offline jobs.
+ *
+ * Questions are processed in chunks: each chunk is embedded with one embeddings call and
+ * searched with one batch search (see HybridRetriever#retrieveBatch), then its LLM calls are started. At most
+ * {@code concurrency} LLM calls run at a time; starting more waits for a slot, which also
+ * keeps embedding and search from running far ahead. Answers are reported as they finish,
+ * so their order is not the input order — use {@link BatchAnswer#index()}.
+ */
+public class BatchAnswerer {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchAnswerer.class);
+
+    // Questions per embeddings call and per batch search request
+    private static final int CHUNK_SIZE = 100;
+    private static final int TOP_K = 5;
+
+    private final HybridRetriever retriever;
+    private final ContextAssembler contextAssembler;
+    private final LlmClient llmClient;
+    private final int concurrency;
+
+    public BatchAnswerer(HybridRetriever retriever,
+                         ContextAssembler contextAssembler,
+                         LlmClient llmClient,
+                         int concurrency) {
+        this.retriever = retriever;
+        this.contextAssembler = contextAssembler;
+        this.llmClient = llmClient;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Answer all questions, calling {@code onAnswer} once per question (from several threads,
+     * one call at a time). A failure for one question is reported in its BatchAnswer and does
+     * not stop the others; a failed chunk embedding or search fails every question in the chunk.
+     * If {@code onAnswer} itself throws (e.g. the client went away), no new questions are
+     * started and that exception is rethrown once the running ones finish.
+     */
+    public void answerAll(List<String> questions, Consumer<BatchAnswer> onAnswer) throws InterruptedException {
+        AtomicReference<RuntimeException> consumerFailure = new AtomicReference<>();
+        // onAnswer typically writes to the client's socket; a ReentrantLock (unlike synchronized)
+        // lets a virtual thread blocked in that write unmount from its carrier
+        ReentrantLock reportLock = new ReentrantLock();
+        Consumer<BatchAnswer> report = answer -> {
+            reportLock.lock();
+            try {
+                if (consumerFailure.get() != null) {
+                    return;
+                }
+                onAnswer.accept(answer);
+            } catch (RuntimeException e) {
+                consumerFailure.set(e);
+            } finally {
+                reportLock.unlock();
+            }
+        };
+        Semaphore slots = new Semaphore(concurrency);
+
+        try (ExecutorService generators = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int start = 0; start < questions.size() && consumerFailure.get() == null; start += CHUNK_SIZE) {
+                int end = Math.min(start + CHUNK_SIZE, questions.size());
+                List<String> chunk = questions.subList(start, end);
+
+                List<List<SearchResult>> hitsPerQuestion;
+                try {
+                    hitsPerQuestion = retriever.retrieveBatch(chunk, TOP_K);
+                } catch (Exception e) {
+                    log.warn("Batch questions {}..{} failed before generation: {}", start, end - 1, e.getMessage());
+                    for (int i = start; i < end; i++) {
+                        report.accept(BatchAnswer.failed(i, questions.get(i), e));
+                    }
+                    continue;
+                }
+
+                for (int i = start; i < end && consumerFailure.get() == null; i++) {
+                    int index = i;
+                    List<SearchResult> hits = hitsPerQuestion.get(i - start);
+                    slots.acquire();
+                    generators.execute(() -> {
+                        try {
+                            report.accept(answer(index, questions.get(index), hits));
+                        } catch (Exception e) {
+                            report.accept(BatchAnswer.failed(index, questions.get(index), e));
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+            }
+        }
+        if (consumerFailure.get() != null) {
+            throw consumerFailure.get();
+        }
+    }
+
+    private BatchAnswer answer(int index, String question, List<SearchResult> hits) throws Exception {
+        if (hits.isEmpty()) {
+            return new BatchAnswer(index, question,
+                    "Sorry, I could not find any relevant documents in the knowledge base.", List.of(), null, null);
+        }
+        ContextAssembler.Prompt prompt = contextAssembler.assemble(question, hits);
+        String answer = llmClient.askWithContext(prompt.systemPrompt(), prompt.userPrompt());
+        List<Map<String, Object>> contextDocs = hits.stream()
+                .map(SearchResult::getPayload)
+                .collect(Collectors.toList());
+        return new BatchAnswer(index, question, answer, contextDocs, prompt.promptTokens(), null);
+    }
+
+    /**
+     * Result for the question at {@code index} of the input: either answer and context
+     * documents, or an error message.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record BatchAnswer(int index,
+                              String question,
+                              String answer,
+                              List<Map<String, Object>> contextDocuments,
+                              Integer promptTokens,
+                              String error) {
+
+        static BatchAnswer failed(int index, String question, Exception e) {
+            return new BatchAnswer(index, question, null, null, null, String.valueOf(e.getMessage()));
+        }
+    }
+}
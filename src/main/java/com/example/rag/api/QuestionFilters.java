@@ -0,0 +1,132 @@
+package com.example.rag.api;
+
+import com.example.rag.ingest.SearchFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns an ask request into payload constraints for retrieval.
+ *
+ * Explicit request fields win. Without them, skin types are picked up from the question
+ * when they describe the word "skin" ("dry sensitive skin", "oily, acne-prone skin"), and a
+ * stated age ("I'm 30", "35 years old") selects the age ranges that contain it. Both
+ * vocabularies are the values the dataset actually uses, so a value added to the dataset
+ * is recognised without a code change.
+ * Skin type, concerns and age range also accept documents that don't have the field
+ * (rules, ingredients, routines), so general knowledge is not filtered away; document
+ * type is a strict match.
+ */
+public class QuestionFilters {
+
+    // Up to four words right before "skin"
+    private static final Pattern SKIN_PHRASE = Pattern.compile("((?:[a-z_]+[\\s,/]+){1,4})skin\\b");
+    // "I'm 30", "I am 30", "age 30", "aged 30" / "30 years old", "30 y.o.", "30yo"
+    private static final Pattern STATED_AGE = Pattern.compile(
+            "\\b(?:i'm|i am|im|age|aged)\\s+(\\d{1,2})\\b|\\b(\\d{1,2})\\s*(?:years?\\s+old|y\\.?o\\b|yrs?\\s+old)");
+    // Dataset age ranges: "25-40" or "40+"
+    private static final Pattern AGE_RANGE = Pattern.compile("(\\d+)\\s*(?:-\\s*(\\d+)|(\\+))");
+
+    private final Set<String> skinTypes;
+    private final List<String> ageRanges;
+
+    /**
+     * @param skinTypes skin_type values to recognise in questions
+     * @param ageRanges age_range values ("25-40", "40+") a stated age is matched against
+     */
+    public QuestionFilters(Collection<String> skinTypes, Collection<String> ageRanges) {
+        this.skinTypes = Set.copyOf(skinTypes);
+        this.ageRanges = List.copyOf(ageRanges);
+    }
+
+    /**
+     * Vocabulary of the skin_type and age_range values found in these document payloads.
+     */
+    public static QuestionFilters fromPayloads(Collection<Map<String, Object>> payloads) {
+        Set<String> skinTypes = new TreeSet<>();
+        Set<String> ageRanges = new TreeSet<>();
+        for (Map<String, Object> payload : payloads) {
+            addValues(skinTypes, payload.get("skin_type"));
+            addValues(ageRanges, payload.get("age_range"));
+        }
+        return new QuestionFilters(skinTypes, ageRanges);
+    }
+
+    SearchFilter from(AskRequest request) {
+        List<String> requestedSkinTypes = request.getSkinTypes();
+        if (requestedSkinTypes == null || requestedSkinTypes.isEmpty()) {
+            requestedSkinTypes = skinTypesIn(request.getQuestion());
+        }
+        List<String> requestedAgeRanges = request.getAgeRanges();
+        if (requestedAgeRanges == null || requestedAgeRanges.isEmpty()) {
+            requestedAgeRanges = ageRangesIn(request.getQuestion());
+        }
+        return SearchFilter.NONE
+                .anyOfOrMissing("skin_type", requestedSkinTypes)
+                .anyOfOrMissing("concerns", request.getConcerns())
+                .anyOfOrMissing("age_range", requestedAgeRanges)
+                .anyOf("type", request.getTypes());
+    }
+
+    /**
+     * Known skin types among the words before "skin"; two-word types such as
+     * "barrier impaired" or "acne prone" match with or without a hyphen.
+     */
+    List<String> skinTypesIn(String question) {
+        String text = question.toLowerCase(Locale.ROOT).replace('-', '_');
+        Set<String> found = new LinkedHashSet<>();
+        Matcher matcher = SKIN_PHRASE.matcher(text);
+        while (matcher.find()) {
+            String[] words = matcher.group(1).trim().split("[\\s,/]+");
+            for (int i = 0; i < words.length; i++) {
+                if (skinTypes.contains(words[i])) {
+                    found.add(words[i]);
+                } else if (i + 1 < words.length && skinTypes.contains(words[i] + "_" + words[i + 1])) {
+                    found.add(words[i] + "_" + words[i + 1]);
+                    i++;
+                }
+            }
+        }
+        return List.copyOf(found);
+    }
+
+    /**
+     * The known age ranges that contain the age stated in the question (none if no age is stated).
+     */
+    List<String> ageRangesIn(String question) {
+        Matcher matcher = STATED_AGE.matcher(question.toLowerCase(Locale.ROOT).replace('’', '\''));
+        if (!matcher.find()) {
+            return List.of();
+        }
+        int age = Integer.parseInt(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        List<String> matching = new ArrayList<>();
+        for (String range : ageRanges) {
+            Matcher bounds = AGE_RANGE.matcher(range);
+            if (!bounds.matches()) {
+                continue;
+            }
+            int low = Integer.parseInt(bounds.group(1));
+            int high = bounds.group(3) != null ? Integer.MAX_VALUE : Integer.parseInt(bounds.group(2));
+            if (age >= low && age <= high) {
+                matching.add(range);
+            }
+        }
+        return matching;
+    }
+
+    private static void addValues(Set<String> values, Object field) {
+        if (field instanceof Collection<?> list) {
+            list.forEach(value -> addValues(values, value));
+        } else if (field instanceof String value && !value.isBlank()) {
+            values.add(value.trim().toLowerCase(Locale.ROOT));
+        }
+    }
+}
@@ -1,15 +1,31 @@
 package com.example.rag.api;
 
-import com.example.rag.ingest.EmbeddingClient;
-import com.example.rag.ingest.QdrantService;
+import com.example.rag.ingest.CachingEmbedder;
+import com.example.rag.ingest.HybridRetriever;
+import com.example.rag.ingest.SearchFilter;
 import com.example.rag.ingest.SearchResult;
+import com.example.rag.ingest.Vector;
+import com.example.rag.llm.ContextAssembler;
 import com.example.rag.llm.LlmClient;
+import com.example.rag.llm.SemanticAnswerCache;
+import com.example.rag.metrics.RagMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /**
@@ -19,6 +35,11 @@ import java.util.stream.Collectors;
  * {
  *   "question": "I am 35 with dry sensitive skin, what evening routine can I build from this box?"
  * }
+ * Optional "skinTypes", "concerns", "types" and "ageRanges" lists restrict which documents are retrieved.
+ * "timings": true (or the X-Rag-Timings: true header) adds a per-stage timing breakdown to the response.
+ *
+ * POST /api/ask/stream takes the same body and streams the answer as server-sent events.
+ * POST /api/ask/batch takes { "questions": [...] } and streams answers back as NDJSON.
  */
 @RestController
 @RequestMapping("/api")
@@ -26,34 +47,102 @@ public class RagController {
 
     private static final Logger log = LoggerFactory.getLogger(RagController.class);
 
-    private static final String COLLECTION_NAME = "skincare_box";
+    private static final long STREAM_TIMEOUT_MS = 120_000;
+
+    // Set to true to get the timings block in an /api/ask response (same as "timings": true in the body)
+    static final String TIMINGS_HEADER = "X-Rag-Timings";
 
-    private final EmbeddingClient embeddingClient;
-    private final QdrantService qdrantService;
+    private final HybridRetriever retriever;
+    private final ContextAssembler contextAssembler;
     private final LlmClient llmClient;
+    private final SemanticAnswerCache answerCache;
+    private final BatchAnswerer batchAnswerer;
+    private final SlowQueryLog slowQueryLog;
+    private final QuestionFilters questionFilters;
+    private final ObjectMapper objectMapper;
+    private final SingleFlight<String, AskResponse> inFlightQuestions = new SingleFlight<>();
+    private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
-    public RagController(EmbeddingClient embeddingClient,
-                         QdrantService qdrantService,
-                         LlmClient llmClient) {
-        this.embeddingClient = embeddingClient;
-        this.qdrantService = qdrantService;
+    public RagController(HybridRetriever retriever,
+                         ContextAssembler contextAssembler,
+                         LlmClient llmClient,
+                         SemanticAnswerCache answerCache,
+                         BatchAnswerer batchAnswerer,
+                         SlowQueryLog slowQueryLog,
+                         QuestionFilters questionFilters,
+                         ObjectMapper objectMapper) {
+        this.retriever = retriever;
+        this.contextAssembler = contextAssembler;
         this.llmClient = llmClient;
+        this.answerCache = answerCache;
+        this.batchAnswerer = batchAnswerer;
+        this.slowQueryLog = slowQueryLog;
+        this.questionFilters = questionFilters;
+        this.objectMapper = objectMapper;
+        RagMetrics.registerCount("rag.single_flight.executions", "Question pipeline runs",
+                inFlightQuestions, SingleFlight::getExecutions);
+        RagMetrics.registerCount("rag.single_flight.joined", "Requests that joined a run already in flight",
+                inFlightQuestions, SingleFlight::getJoined);
     }
 
     @PostMapping("/ask")
-    public AskResponse ask(@RequestBody AskRequest request) throws Exception {
+    public AskResponse ask(@RequestBody AskRequest request,
+                           @RequestHeader(value = TIMINGS_HEADER, defaultValue = "false") boolean timingsHeader)
+            throws Exception {
         String question = request.getQuestion();
         if (question == null || question.isBlank()) {
             throw new IllegalArgumentException("Question must not be empty");
         }
 
-        log.info("Received question: {}", question);
+        SearchFilter filter = questionFilters.from(request);
+        log.info("Received question: {}{}", question, filter.isEmpty() ? "" : " [filter: " + filter + "]");
 
-        // 1. Embed user question
-        List<Double> questionVector = embeddingClient.embed(question);
+        // Identical questions (with identical constraints) asked at the same moment share one pipeline run
+        String key = CachingEmbedder.normalize(question) + "|" + filter;
+        AskResponse response = inFlightQuestions.execute(key, () -> answer(question, filter));
+        log.debug("Single-flight: {} executions, {} joined (collapse ratio {})",
+                inFlightQuestions.getExecutions(), inFlightQuestions.getJoined(),
+                String.format("%.2f", inFlightQuestions.collapseRatio()));
 
-        // 2. Search in Qdrant
-        List<SearchResult> hits = qdrantService.search(COLLECTION_NAME, questionVector, 5);
+        if (request.isTimings() || timingsHeader) {
+            return response;
+        }
+        // The response may be shared with joined callers, so copy it rather than clear its timings
+        AskResponse withoutTimings = new AskResponse(response.getAnswer(), response.getContextDocuments());
+        withoutTimings.setPromptTokens(response.getPromptTokens());
+        return withoutTimings;
+    }
+
+    /**
+     * One pipeline run. The response always carries its timings (they cost next to nothing
+     * to collect); slow runs are logged with them.
+     */
+    private AskResponse answer(String question, SearchFilter filter) throws Exception {
+        long start = System.nanoTime();
+        AskTimings timings = new AskTimings();
+        AskResponse response = answer(question, filter, timings);
+        timings.setTotal(Duration.ofNanos(System.nanoTime() - start));
+        response.setTimings(timings);
+        slowQueryLog.record(question, timings);
+        return response;
+    }
+
+    private AskResponse answer(String question, SearchFilter filter, AskTimings timings) throws Exception {
+        // 1-2. Embed the question (served from cache for repeated questions) and retrieve
+        //      documents matching the request's constraints: vector search fused with keyword search
+        HybridRetriever.Retrieval retrieval = retriever.retrieve(question, 5, filter);
+        Vector questionVector = retrieval.questionVector();
+        List<SearchResult> hits = retrieval.hits();
+        timings.recordStage("embed", retrieval.embedTime());
+        timings.recordStage("vector_search", retrieval.vectorSearchTime());
+        if (retrieval.keywordSearchTime() != null) {
+            timings.recordStage("keyword_search", retrieval.keywordSearchTime());
+        }
+        // Fused hits carry rank-fusion scores; the legs' own scores say how good the matches were
+        timings.setVectorScores(scores(retrieval.vectorHits()));
+        if (retrieval.keywordHits() != null) {
+            timings.setKeywordScores(scores(retrieval.keywordHits()));
+        }
 
         if (hits.isEmpty()) {
             return new AskResponse(
@@ -62,72 +151,165 @@ public class RagController {
             );
         }
 
-        // 3. Build context string for LLM
-        String context = buildContextFromHits(hits);
+        // 3. Prepare context docs for response (for debug / UI)
+        List<Map<String, Object>> contextDocs = hits.stream()
+                .map(SearchResult::getPayload)
+                .collect(Collectors.toList());
 
-        // 4. Compose prompts for LLM
-        String systemPrompt = """
-                You are a skincare assistant specializing in Korean multi-step routines.
-                Answer in English in a clear and practical way.
-                Use ONLY the provided context about products, ingredients, routines and rules.
-                If the information is missing, say that it is not present in the dataset.
-                """;
+        // 4. Reuse the answer to a paraphrase of an earlier question if its documents are unchanged
+        String cached = timeStage("cache_lookup", timings, () -> answerCache.lookup(questionVector, hits));
+        if (cached != null) {
+            log.info("Answer served from semantic cache");
+            timings.setCacheHit(true);
+            return new AskResponse(cached, contextDocs);
+        }
 
-        String userPrompt = """
-                User question:
-                %s
+        // 5. Compose prompts for LLM: hits best first, within the token budget
+        ContextAssembler.Prompt prompt = timeStage("context", timings, () -> contextAssembler.assemble(question, hits));
+        logPrompt(prompt);
 
-                Relevant context from knowledge base:
-                %s
-                """.formatted(question, context);
+        // 6. Call LLM
+        LlmClient.Completion completion = timeStage("llm", timings,
+                () -> llmClient.chat(prompt.systemPrompt(), prompt.userPrompt()));
+        answerCache.put(questionVector, prompt.usedHits(), completion.text());
+        timings.setPromptTokens(completion.promptTokens());
+        timings.setCompletionTokens(completion.completionTokens());
 
-        // 5. Call LLM
-        String answer = llmClient.askWithContext(systemPrompt, userPrompt);
+        AskResponse response = new AskResponse(completion.text(), contextDocs);
+        response.setPromptTokens(prompt.promptTokens());
+        return response;
+    }
 
-        // 6. Prepare context docs for response (for debug / UI)
-        List<Map<String, Object>> contextDocs = hits.stream()
-                .map(SearchResult::getPayload)
-                .collect(Collectors.toList());
+    /**
+     * Same pipeline as /api/ask, but the answer is streamed as server-sent events:
+     * one "context" event with the retrieved payloads, a "token" event per answer delta
+     * ({"text": ...}), then "done" — or "error" ({"message": ...}) if something fails.
+     */
+    @PostMapping(value = "/ask/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter askStream(@RequestBody AskRequest request) {
+        String question = request.getQuestion();
+        if (question == null || question.isBlank()) {
+            throw new IllegalArgumentException("Question must not be empty");
+        }
 
-        return new AskResponse(answer, contextDocs);
+        SearchFilter filter = questionFilters.from(request);
+        log.info("Received streaming question: {}{}", question, filter.isEmpty() ? "" : " [filter: " + filter + "]");
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        streamExecutor.execute(() -> {
+            try {
+                HybridRetriever.Retrieval retrieval = retriever.retrieve(question, 5, filter);
+                Vector questionVector = retrieval.questionVector();
+                List<SearchResult> hits = retrieval.hits();
+
+                List<Map<String, Object>> contextDocs = hits.stream()
+                        .map(SearchResult::getPayload)
+                        .collect(Collectors.toList());
+                emitter.send(SseEmitter.event().name("context").data(contextDocs, MediaType.APPLICATION_JSON));
+
+                if (hits.isEmpty()) {
+                    sendToken(emitter, "Sorry, I could not find any relevant documents in the knowledge base.");
+                } else {
+                    String cached = RagMetrics.timeStage("cache_lookup",
+                            () -> answerCache.lookup(questionVector, hits));
+                    if (cached != null) {
+                        log.info("Answer served from semantic cache");
+                        sendToken(emitter, cached);
+                    } else {
+                        ContextAssembler.Prompt prompt = RagMetrics.timeStage("context",
+                                () -> contextAssembler.assemble(question, hits));
+                        logPrompt(prompt);
+                        // Includes writing the tokens to the client, so kept apart from "llm"
+                        String answer = RagMetrics.timeStage("llm_stream",
+                                () -> llmClient.streamWithContext(prompt.systemPrompt(), prompt.userPrompt(),
+                                        token -> sendToken(emitter, token)));
+                        answerCache.put(questionVector, prompt.usedHits(), answer);
+                    }
+                }
+
+                emitter.send(SseEmitter.event().name("done").data(""));
+                emitter.complete();
+            } catch (Exception e) {
+                log.warn("Streaming answer failed: {}", e.getMessage());
+                try {
+                    emitter.send(SseEmitter.event().name("error")
+                            .data(Map.of("message", String.valueOf(e.getMessage())), MediaType.APPLICATION_JSON));
+                    emitter.complete();
+                } catch (Exception sendFailed) {
+                    // the client is gone; nothing left to tell it
+                    emitter.completeWithError(e);
+                }
+            }
+        });
+        return emitter;
     }
 
     /**
-     * Build a single text block from Qdrant search hits.
+     * Answer many questions: embeddings and search are batched, LLM calls run with bounded
+     * concurrency, and each answer is written as one NDJSON line as soon as it is ready
+     * (so lines come in completion order; "index" points back into the request list).
      */
-    private static String buildContextFromHits(List<SearchResult> hits) {
-        return hits.stream()
-                .map(hit -> {
-                    Map<String, Object> p = hit.getPayload();
-
-                    Object docId = p.get("doc_id");
-                    Object type = p.get("type");
-                    Object title = p.get("title");
-                    Object text = p.get("text");
-                    Object concerns = p.get("concerns");
-                    Object skinType = p.get("skin_type");
-                    Object ageRange = p.get("age_range");
-
-                    StringBuilder sb = new StringBuilder();
-                    sb.append("Document: ").append(docId).append("\n");
-                    sb.append("Type: ").append(type).append("\n");
-                    if (title != null) {
-                        sb.append("Title: ").append(title).append("\n");
-                    }
-                    if (skinType != null) {
-                        sb.append("Skin type: ").append(skinType).append("\n");
-                    }
-                    if (concerns != null) {
-                        sb.append("Concerns: ").append(concerns).append("\n");
-                    }
-                    if (ageRange != null) {
-                        sb.append("Age range: ").append(ageRange).append("\n");
+    @PostMapping(value = "/ask/batch", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> askBatch(@RequestBody AskBatchRequest request) {
+        List<String> questions = request.getQuestions();
+        if (questions == null || questions.isEmpty()) {
+            throw new IllegalArgumentException("Questions must not be empty");
+        }
+
+        log.info("Received batch of {} questions", questions.size());
+
+        StreamingResponseBody body = out -> {
+            try {
+                batchAnswerer.answerAll(questions, answer -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(answer));
+                        out.write('\n');
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                    sb.append("Text: ").append(text).append("\n");
-                    sb.append("Score: ").append(hit.getScore()).append("\n");
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Batch interrupted", e);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
 
-                    return sb.toString();
-                })
-                .collect(Collectors.joining("\n---------------------\n"));
+    /**
+     * Run a stage, recording it both in the metrics and in this request's timings.
+     */
+    private static <T> T timeStage(String stage, AskTimings timings, Callable<T> work) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return RagMetrics.timeStage(stage, work);
+        } finally {
+            timings.recordStage(stage, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    private static List<Double> scores(List<SearchResult> hits) {
+        return hits.stream().map(SearchResult::getScore).toList();
+    }
+
+    private static void logPrompt(ContextAssembler.Prompt prompt) {
+        log.info("Prompt: {} tokens from {} hits ({} duplicate, {} trimmed, {} dropped for budget)",
+                prompt.promptTokens(), prompt.usedHits().size(),
+                prompt.duplicateHits(), prompt.trimmedHits(), prompt.droppedHits());
+    }
+
+    /**
+     * Tokens are sent as JSON so that newlines inside them don't break the event framing.
+     * A failed send (client disconnected) aborts the upstream LLM stream.
+     */
+    private static void sendToken(SseEmitter emitter, String token) {
+        try {
+            emitter.send(SseEmitter.event().name("token").data(Map.of("text", token), MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
@@ -0,0 +1,86 @@
+package com.example.rag.api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses concurrent calls with the same key into one execution.
+ *
+ * The first caller for a key (the leader) runs the work; callers arriving while it is
+ * in flight wait for the leader's result instead of running their own. If the work fails,
+ * every waiter gets the same exception. Nothing is kept once the execution finishes —
+ * this deduplicates in-flight work only, it is not a cache.
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+
+    public V execute(K key, Callable<V> work) throws Exception {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            joined.incrementAndGet();
+            return await(leader);
+        }
+
+        executions.incrementAndGet();
+        try {
+            V result = work.call();
+            mine.complete(result);
+            return result;
+        } catch (Throwable t) {
+            mine.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private V await(CompletableFuture<V> leader) throws Exception {
+        try {
+            return leader.get();
+        } catch (ExecutionException e) {
+            // Rethrow what the leader threw, so every caller sees the same failure type
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception ex) {
+                throw ex;
+            }
+            if (cause instanceof Error err) {
+                throw err;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Number of times the work actually ran.
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     * Number of calls that shared another caller's execution.
+     */
+    public long getJoined() {
+        return joined.get();
+    }
+
+    /**
+     * Calls served per execution: 1.0 means no coalescing happened.
+     */
+    public double collapseRatio() {
+        long runs = executions.get();
+        return runs == 0 ? 1.0 : (double) (runs + joined.get()) / runs;
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+}
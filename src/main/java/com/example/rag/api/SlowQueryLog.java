@@ -0,0 +1,29 @@
+package com.example.rag.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs the full timing breakdown of questions that took longer than a threshold,
+ * under its own logger name so it can be routed or silenced separately.
+ */
+public class SlowQueryLog {
+
+    private static final Logger log = LoggerFactory.getLogger("com.example.rag.slow");
+
+    private final long thresholdMs;
+
+    /**
+     * @param thresholdMs minimum total time to log; 0 or less turns the log off
+     */
+    public SlowQueryLog(long thresholdMs) {
+        this.thresholdMs = thresholdMs;
+    }
+
+    public void record(String question, AskTimings timings) {
+        if (thresholdMs > 0 && timings.getTotalMs() >= thresholdMs) {
+            log.warn("Slow question ({} ms, threshold {} ms): \"{}\" {}",
+                    timings.getTotalMs(), thresholdMs, question, timings);
+        }
+    }
+}
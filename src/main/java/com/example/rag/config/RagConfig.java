@@ -1,10 +1,34 @@
 package com.example.rag.config;
 
+import com.example.rag.api.BatchAnswerer;
+import com.example.rag.api.QuestionFilters;
+import com.example.rag.api.SlowQueryLog;
+import com.example.rag.http.HttpTransport;
+import com.example.rag.ingest.CachingEmbedder;
+import com.example.rag.ingest.DatasetIngestionRunner;
+import com.example.rag.ingest.Embedder;
 import com.example.rag.ingest.EmbeddingClient;
+import com.example.rag.ingest.HnswVectorStore;
+import com.example.rag.ingest.HybridRetriever;
+import com.example.rag.ingest.LexicalIndex;
+import com.example.rag.ingest.LocalVectorStore;
+import com.example.rag.ingest.MicroBatchingEmbedder;
 import com.example.rag.ingest.QdrantService;
+import com.example.rag.ingest.Quantization;
+import com.example.rag.ingest.VectorStore;
+import com.example.rag.llm.ContextAssembler;
 import com.example.rag.llm.LlmClient;
+import com.example.rag.llm.SemanticAnswerCache;
+import com.example.rag.metrics.RagMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.nio.file.Path;
+import java.time.Duration;
 
 /**
  * Spring configuration that wires core RAG components as beans.
@@ -12,28 +36,277 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class RagConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(RagConfig.class);
+
+    private static final String COLLECTION_NAME = "skincare_box";
+
+    /**
+     * Shared outbound HTTP transport (connection pool, timeouts, retries, hedging),
+     * configured from the HTTP_* env variables; see {@link #createTransport()}.
+     */
     @Bean
-    public EmbeddingClient embeddingClient() {
+    public HttpTransport httpTransport() {
+        return createTransport();
+    }
+
+    @Bean
+    public EmbeddingClient embeddingClient(HttpTransport httpTransport) {
         // We still read API key from env.
         String apiKey = System.getenv("OPENAI_API_KEY");
         if (apiKey == null || apiKey.isBlank()) {
             throw new IllegalStateException("OPENAI_API_KEY env variable is not set");
         }
-        return new EmbeddingClient(apiKey);
+        // "base64" (default) or "float"
+        EmbeddingClient.EncodingFormat format =
+                EmbeddingClient.EncodingFormat.parse(System.getenv("OPENAI_EMBEDDING_ENCODING"));
+        return new EmbeddingClient(apiKey, format, openAiBaseUrl(), httpTransport);
+    }
+
+    /**
+     * Question embedder: OpenAI client behind an LRU/TTL cache of recent questions.
+     * Cache misses from concurrent requests are merged into batched embeddings calls, collected
+     * for up to EMBEDDING_BATCH_WINDOW_MS or EMBEDDING_BATCH_MAX_INPUTS questions
+     * (a max of 1 turns batching off). A batched question waits at most
+     * EMBEDDING_BATCH_TIMEOUT_MS, by default as long as the HTTP transport may take with all
+     * its attempts.
+     */
+    @Bean
+    @Primary
+    public Embedder embedder(EmbeddingClient embeddingClient, HttpTransport httpTransport) {
+        long maxBytes = longEnv("EMBEDDING_CACHE_MAX_BYTES", 64L * 1024 * 1024);
+        long ttlSeconds = longEnv("EMBEDDING_CACHE_TTL_SECONDS", 3600);
+        long windowMs = longEnv("EMBEDDING_BATCH_WINDOW_MS", 5);
+        int maxInputs = (int) longEnv("EMBEDDING_BATCH_MAX_INPUTS", 64);
+        HttpTransport.Settings http = httpTransport.settings();
+        long timeoutMs = longEnv("EMBEDDING_BATCH_TIMEOUT_MS",
+                windowMs + http.maxAttempts() * http.requestTimeout().toMillis());
+
+        Embedder upstream = embeddingClient;
+        if (maxInputs > 1) {
+            MicroBatchingEmbedder batching =
+                    new MicroBatchingEmbedder(embeddingClient, Duration.ofMillis(windowMs), maxInputs,
+                            Duration.ofMillis(timeoutMs));
+            RagMetrics.registerCount("rag.embedding.batches", "Batched embeddings calls",
+                    batching, MicroBatchingEmbedder::getBatches);
+            RagMetrics.registerCount("rag.embedding.batched_inputs", "Questions embedded through batched calls",
+                    batching, MicroBatchingEmbedder::getInputs);
+            upstream = batching;
+        }
+        CachingEmbedder cache = new CachingEmbedder(upstream, maxBytes, Duration.ofSeconds(ttlSeconds));
+        RagMetrics.registerCache("embedding", cache, CachingEmbedder::getHits, CachingEmbedder::getMisses,
+                c -> c.getEvictions() + c.getExpirations(), CachingEmbedder::size);
+        return cache;
     }
 
+    /**
+     * Vector store selected by the VECTOR_STORE env variable:
+     * "qdrant" (default), "local" for in-process exact search or "hnsw" for an in-process
+     * approximate (HNSW) index persisted as a snapshot.
+     */
     @Bean
-    public QdrantService qdrantService() {
-        // Default constructor uses localhost:6333
-        return new QdrantService();
+    public VectorStore vectorStore(EmbeddingClient embeddingClient, HttpTransport httpTransport) throws Exception {
+        return createVectorStore(System.getenv("VECTOR_STORE"), embeddingClient, httpTransport);
     }
 
     @Bean
-    public LlmClient llmClient() {
+    public LlmClient llmClient(HttpTransport httpTransport) {
         String apiKey = System.getenv("OPENAI_API_KEY");
         if (apiKey == null || apiKey.isBlank()) {
             throw new IllegalStateException("OPENAI_API_KEY env variable is not set");
         }
-        return new LlmClient(apiKey);
+        return new LlmClient(apiKey, openAiBaseUrl(), llmTransport(httpTransport));
+    }
+
+    /**
+     * Answers reused for paraphrased questions: ANSWER_CACHE_THRESHOLD is the minimum cosine
+     * similarity between questions, ANSWER_CACHE_MAX_ENTRIES bounds the cache.
+     */
+    @Bean
+    public SemanticAnswerCache semanticAnswerCache() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(
+                Double.parseDouble(stringEnv("ANSWER_CACHE_THRESHOLD", "0.92")),
+                (int) longEnv("ANSWER_CACHE_MAX_ENTRIES", 1000));
+        RagMetrics.registerCache("answer", cache, SemanticAnswerCache::getHits, SemanticAnswerCache::getMisses,
+                c -> c.getEvictions() + c.getInvalidations(), SemanticAnswerCache::size);
+        return cache;
+    }
+
+    /**
+     * Batch question answering for /api/ask/batch; ASK_BATCH_CONCURRENCY bounds parallel LLM calls.
+     */
+    @Bean
+    public BatchAnswerer batchAnswerer(HybridRetriever retriever, ContextAssembler contextAssembler, LlmClient llmClient) {
+        return new BatchAnswerer(retriever, contextAssembler, llmClient, (int) longEnv("ASK_BATCH_CONCURRENCY", 8));
+    }
+
+    /**
+     * Filters read from questions, using the skin types and age ranges of the bundled dataset.
+     */
+    @Bean
+    public QuestionFilters questionFilters() throws Exception {
+        return QuestionFilters.fromPayloads(DatasetIngestionRunner.datasetPayloads(new ObjectMapper()));
+    }
+
+    /**
+     * Questions slower than SLOW_QUERY_MS (0 turns it off) are logged with their timing breakdown.
+     */
+    @Bean
+    public SlowQueryLog slowQueryLog() {
+        return new SlowQueryLog(longEnv("SLOW_QUERY_MS", 5000));
+    }
+
+    /**
+     * Prompt builder; PROMPT_TOKEN_BUDGET caps the prompt (system prompt, question and context) in tokens.
+     */
+    @Bean
+    public ContextAssembler contextAssembler() {
+        return createContextAssembler();
+    }
+
+    public static ContextAssembler createContextAssembler() {
+        return new ContextAssembler((int) longEnv("PROMPT_TOKEN_BUDGET", 3000));
+    }
+
+    /**
+     * Question retrieval: vector search fused with BM25 keyword search over the dataset
+     * documents the vector store holds, unless LEXICAL_SEARCH=false.
+     */
+    @Bean
+    public HybridRetriever hybridRetriever(Embedder embedder, VectorStore vectorStore) throws Exception {
+        return createRetriever(embedder, vectorStore);
+    }
+
+    /**
+     * Build the question retriever; shared with the CLI runner.
+     */
+    public static HybridRetriever createRetriever(Embedder embedder, VectorStore vectorStore) throws Exception {
+        LexicalIndex lexicalIndex = null;
+        if (Boolean.parseBoolean(stringEnv("LEXICAL_SEARCH", "true"))) {
+            lexicalIndex = DatasetIngestionRunner.buildLexicalIndex(new ObjectMapper(), vectorStore);
+            if (lexicalIndex.size() == 0) {
+                // The store holds none of the bundled documents (e.g. another Qdrant collection)
+                log.warn("Keyword search is off: the vector store holds none of the dataset documents");
+                lexicalIndex = null;
+            } else {
+                log.info("Keyword index built over {} documents", lexicalIndex.size());
+            }
+        }
+        return new HybridRetriever(embedder, vectorStore, lexicalIndex, COLLECTION_NAME);
+    }
+
+    /**
+     * Build the vector store of the given kind. In-process stores start empty, so the
+     * dataset is ingested into them right away (embeddings come from the local embedding
+     * store, so only new or changed documents hit the API).
+     */
+    public static VectorStore createVectorStore(String kind, EmbeddingClient embeddingClient,
+                                                HttpTransport transport) throws Exception {
+        String name = kind == null || kind.isBlank() ? "qdrant" : kind.trim().toLowerCase();
+        switch (name) {
+            case "qdrant":
+                return createQdrantService(transport);
+            case "local":
+                LocalVectorStore store = new LocalVectorStore(
+                        Quantization.parse(System.getenv("VECTOR_QUANTIZATION")),
+                        Double.parseDouble(stringEnv("QUANTIZATION_OVERSAMPLING", "3")),
+                        Path.of(stringEnv("LOCAL_ORIGINALS_DIR", "data/local-originals")));
+                DatasetIngestionRunner.ingest(embeddingClient, store);
+                log.info("In-process vector store ready");
+                return store;
+            case "hnsw":
+                HnswVectorStore hnsw = new HnswVectorStore(
+                        Path.of(stringEnv("HNSW_SNAPSHOT_DIR", "data/hnsw")),
+                        (int) longEnv("HNSW_M", 16),
+                        (int) longEnv("HNSW_EF_CONSTRUCTION", 200),
+                        (int) longEnv("HNSW_EF_SEARCH", 64));
+                // Loads the snapshot (if any), then applies only what changed in the dataset
+                DatasetIngestionRunner.ingest(embeddingClient, hnsw);
+                hnsw.saveSnapshots();
+                hnsw.logRecall((int) longEnv("HNSW_RECALL_QUERIES", 100), 5);
+                return hnsw;
+            default:
+                throw new IllegalArgumentException("Unknown VECTOR_STORE: " + kind + " (expected qdrant, local or hnsw)");
+        }
+    }
+
+    /**
+     * OpenAI API root from OPENAI_BASE_URL (default https://api.openai.com/v1), so the
+     * clients can be pointed at a proxy or at the load-test stubs.
+     */
+    public static String openAiBaseUrl() {
+        return trimSlash(stringEnv("OPENAI_BASE_URL", EmbeddingClient.DEFAULT_BASE_URL));
+    }
+
+    /**
+     * Qdrant address from QDRANT_URL (default http://localhost:6333).
+     */
+    public static String qdrantUrl() {
+        return trimSlash(stringEnv("QDRANT_URL", QdrantService.DEFAULT_HOST));
+    }
+
+    private static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * Qdrant client on QDRANT_URL. VECTOR_QUANTIZATION (none|int8|binary) and
+     * QDRANT_VECTORS_ON_DISK are applied when the collection is created.
+     */
+    public static QdrantService createQdrantService(HttpTransport transport) {
+        return new QdrantService(
+                qdrantUrl(),
+                Quantization.parse(System.getenv("VECTOR_QUANTIZATION")),
+                Boolean.parseBoolean(stringEnv("QDRANT_VECTORS_ON_DISK", "false")),
+                Double.parseDouble(stringEnv("QUANTIZATION_OVERSAMPLING", "3")),
+                transport);
+    }
+
+    /**
+     * Outbound HTTP transport from the environment:
+     * - HTTP_CONNECT_TIMEOUT_MS (default 2000), HTTP_REQUEST_TIMEOUT_MS (default 30000)
+     * - HTTP_MAX_ATTEMPTS (default 3; 1 turns retries off), HTTP_BACKOFF_INITIAL_MS (200),
+     *   HTTP_BACKOFF_MAX_MS (5000)
+     * - HTTP_HEDGE_DELAY_MS: send a duplicate embeddings/Qdrant search after this long
+     *   (default 0 = no hedging; roughly the upstream's p95 is a good value)
+     * - HTTP_VERSION: "2" (default, falls back to 1.1 per server) or "1.1"
+     */
+    public static HttpTransport createTransport() {
+        long hedgeMs = longEnv("HTTP_HEDGE_DELAY_MS", 0);
+        String version = stringEnv("HTTP_VERSION", "2");
+        if (!version.equals("2") && !version.equals("1.1")) {
+            throw new IllegalArgumentException("Unknown HTTP_VERSION: " + version + " (expected 2 or 1.1)");
+        }
+        return new HttpTransport(new HttpTransport.Settings(
+                Duration.ofMillis(longEnv("HTTP_CONNECT_TIMEOUT_MS", 2000)),
+                Duration.ofMillis(longEnv("HTTP_REQUEST_TIMEOUT_MS", 30_000)),
+                (int) Math.max(1, longEnv("HTTP_MAX_ATTEMPTS", 3)),
+                Duration.ofMillis(longEnv("HTTP_BACKOFF_INITIAL_MS", 200)),
+                Duration.ofMillis(longEnv("HTTP_BACKOFF_MAX_MS", 5000)),
+                hedgeMs > 0 ? Duration.ofMillis(hedgeMs) : null,
+                version.equals("2")));
+    }
+
+    /**
+     * The transport for chat completions: same pool, but LLM_REQUEST_TIMEOUT_MS (default
+     * 120000), since a full answer takes far longer than a search or an embedding.
+     */
+    public static HttpTransport llmTransport(HttpTransport transport) {
+        return transport.withRequestTimeout(Duration.ofMillis(longEnv("LLM_REQUEST_TIMEOUT_MS", 120_000)));
+    }
+
+    private static String stringEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Read a numeric setting from the environment, falling back to a default.
+     */
+    private static long longEnv(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Long.parseLong(value.trim());
     }
 }
@@ -0,0 +1,349 @@
+package com.example.rag.http;
+
+import com.example.rag.metrics.RagMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Outbound HTTP shared by the OpenAI and Qdrant clients: one pooled HttpClient (HTTP/2 where
+ * the server supports it, HTTP/1.1 otherwise) with a connect timeout, a default per-request
+ * timeout, retries and optional hedging.
+ *
+ * Retries: 429 and 5xx responses and failures to connect are retried up to maxAttempts calls
+ * in total, with exponential backoff and jitter. Other I/O failures, including request
+ * timeouts, may mean the server is still working on the request, so they are only retried
+ * for {@link #sendIdempotent}: a timed-out chat completion is not sent (and billed) again.
+ * A Retry-After (or retry-after-ms) header overrides the backoff; if it asks for longer than
+ * MAX_RETRY_AFTER the response is returned as is. After the last attempt the final response
+ * is returned, so callers keep their own status checks.
+ *
+ * Hedging ({@link #sendIdempotent}): if the first call hasn't answered after hedgeDelay, a
+ * second identical call is started and whichever succeeds first wins; the other is cancelled.
+ * Only for requests that are safe to run twice (searches, embeddings).
+ */
+public class HttpTransport {
+
+    // Longest Retry-After we are willing to wait out inside a request
+    private static final Duration MAX_RETRY_AFTER = Duration.ofSeconds(60);
+
+    private final HttpClient httpClient;
+    private final Settings settings;
+
+    /**
+     * @param hedgeDelay wait before sending a hedged duplicate; null turns hedging off
+     * @param http2      prefer HTTP/2 (falls back to HTTP/1.1 when the server doesn't offer it)
+     */
+    public record Settings(Duration connectTimeout,
+                           Duration requestTimeout,
+                           int maxAttempts,
+                           Duration initialBackoff,
+                           Duration maxBackoff,
+                           Duration hedgeDelay,
+                           boolean http2) {
+
+        public static Settings defaults() {
+            return new Settings(Duration.ofSeconds(2), Duration.ofSeconds(30), 3,
+                    Duration.ofMillis(200), Duration.ofSeconds(5), null, true);
+        }
+    }
+
+    public HttpTransport() {
+        this(Settings.defaults());
+    }
+
+    public HttpTransport(Settings settings) {
+        this(HttpClient.newBuilder()
+                .version(settings.http2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(settings.connectTimeout())
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build(), settings);
+    }
+
+    private HttpTransport(HttpClient httpClient, Settings settings) {
+        this.httpClient = httpClient;
+        this.settings = settings;
+    }
+
+    public Settings settings() {
+        return settings;
+    }
+
+    /**
+     * Same connection pool, different default request timeout (e.g. for slow LLM calls).
+     */
+    public HttpTransport withRequestTimeout(Duration requestTimeout) {
+        return new HttpTransport(httpClient, new Settings(settings.connectTimeout(), requestTimeout,
+                settings.maxAttempts(), settings.initialBackoff(), settings.maxBackoff(),
+                settings.hedgeDelay(), settings.http2()));
+    }
+
+    /**
+     * Send a request that must not run twice (writes, chat completions). Only 429/5xx answers
+     * and connect failures are retried. Metrics are recorded per attempt under the given
+     * client/operation.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                    String client, String operation) throws IOException, InterruptedException {
+        return sendWithRetries(withTimeout(request), handler, client, operation, false);
+    }
+
+    /**
+     * Like {@link #send}, for requests that are safe to repeat: timeouts and other I/O failures
+     * are retried too, and the request may be hedged when a hedge delay is configured.
+     */
+    public <T> HttpResponse<T> sendIdempotent(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                              String client, String operation) throws IOException, InterruptedException {
+        return sendWithRetries(withTimeout(request), handler, client, operation, true);
+    }
+
+    private <T> HttpResponse<T> sendWithRetries(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                String client, String operation, boolean idempotent)
+            throws IOException, InterruptedException {
+        boolean hedge = idempotent && settings.hedgeDelay() != null;
+        for (int attempt = 1; ; attempt++) {
+            boolean last = attempt >= settings.maxAttempts();
+            HttpResponse<T> response;
+            try {
+                response = hedge
+                        ? sendHedged(request, handler, client, operation)
+                        : sendOnce(request, handler, client, operation);
+            } catch (IOException e) {
+                if (last || !(idempotent || notSent(e))) {
+                    throw e;
+                }
+                RagMetrics.recordRetry(client, operation, "io");
+                Thread.sleep(backoff(attempt).toMillis());
+                continue;
+            }
+
+            if (last || !retryable(response.statusCode())) {
+                return response;
+            }
+            Duration wait = retryAfter(response);
+            if (wait == null) {
+                wait = backoff(attempt);
+            } else if (wait.compareTo(MAX_RETRY_AFTER) > 0) {
+                return response;
+            }
+            discard(response);
+            RagMetrics.recordRetry(client, operation, Integer.toString(response.statusCode()));
+            Thread.sleep(wait.toMillis());
+        }
+    }
+
+    private <T> HttpResponse<T> sendOnce(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                         String client, String operation) throws IOException, InterruptedException {
+        RagMetrics.recordSent(client, operation, request);
+        long start = System.nanoTime();
+        try {
+            HttpResponse<T> response = httpClient.send(request, handler);
+            RagMetrics.recordResponse(client, operation, response, System.nanoTime() - start);
+            return response;
+        } catch (IOException e) {
+            RagMetrics.recordFailure(client, operation, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    /**
+     * Primary call, plus a duplicate if the primary is still running after hedgeDelay. An error
+     * response or failure of one call doesn't end the race while the other may still succeed.
+     */
+    private <T> HttpResponse<T> sendHedged(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                           String client, String operation) throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<T>> primary = sendAsync(request, handler, client, operation);
+        try {
+            return primary.get(settings.hedgeDelay().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Primary is slow: race it against a duplicate below
+        } catch (ExecutionException e) {
+            throw ioException(e.getCause());
+        } catch (InterruptedException e) {
+            primary.cancel(true);
+            throw e;
+        }
+
+        CompletableFuture<HttpResponse<T>> backup = sendAsync(request, handler, client, operation);
+        CompletableFuture<Object> first = CompletableFuture.anyOf(primary, backup);
+        try {
+            first.join();
+        } catch (CompletionException | CancellationException ignored) {
+            // One failed; fall through and look at both
+        }
+        try {
+            HttpResponse<T> winner = pickWinner(primary, backup);
+            RagMetrics.recordHedge(client, operation, winner == resultOrNull(backup) ? "hedge" : "primary");
+            return winner;
+        } catch (InterruptedException e) {
+            primary.cancel(true);
+            backup.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * The first successful (non-retryable) response of the two; the other call is cancelled and
+     * its body discarded. If neither succeeds, the last response or failure is returned/thrown.
+     */
+    private <T> HttpResponse<T> pickWinner(CompletableFuture<HttpResponse<T>> primary,
+                                           CompletableFuture<HttpResponse<T>> backup)
+            throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<T>> done = primary.isDone() ? primary : backup;
+        CompletableFuture<HttpResponse<T>> other = done == primary ? backup : primary;
+
+        HttpResponse<T> response = resultOrNull(done);
+        if (response != null && !retryable(response.statusCode())) {
+            cancel(other);
+            return response;
+        }
+        // The finished call failed; the other one decides
+        try {
+            HttpResponse<T> otherResponse = other.get();
+            if (response != null) {
+                discard(response);
+            }
+            return otherResponse;
+        } catch (ExecutionException e) {
+            if (response != null) {
+                return response;
+            }
+            throw ioException(e.getCause());
+        }
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                             String client, String operation) {
+        RagMetrics.recordSent(client, operation, request);
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> call = httpClient.sendAsync(request, handler);
+        call.whenComplete((response, error) -> {
+            long nanos = System.nanoTime() - start;
+            if (response != null) {
+                RagMetrics.recordResponse(client, operation, response, nanos);
+            } else if (!(error instanceof CancellationException)) {
+                RagMetrics.recordFailure(client, operation, nanos);
+            }
+        });
+        return call;
+    }
+
+    private static <T> HttpResponse<T> resultOrNull(CompletableFuture<HttpResponse<T>> future) {
+        try {
+            return future.getNow(null);
+        } catch (CompletionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    private static void cancel(CompletableFuture<? extends HttpResponse<?>> loser) {
+        // If it completes anyway, nobody reads the body: release the connection
+        loser.thenAccept(HttpTransport::discard);
+        loser.cancel(true);
+    }
+
+    private HttpRequest withTimeout(HttpRequest request) {
+        if (request.timeout().isPresent() || settings.requestTimeout() == null) {
+            return request;
+        }
+        return HttpRequest.newBuilder(request, (name, value) -> true)
+                .timeout(settings.requestTimeout())
+                .build();
+    }
+
+    /**
+     * The request never reached the server, so even a non-idempotent one can be sent again.
+     * (HttpConnectTimeoutException is an HttpTimeoutException, but of the connect phase only.)
+     */
+    private static boolean notSent(IOException e) {
+        return e instanceof ConnectException || e instanceof HttpConnectTimeoutException;
+    }
+
+    private static boolean retryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    /**
+     * initialBackoff * 2^(attempt-1), capped at maxBackoff, with "equal jitter" (half fixed,
+     * half random) so clients throttled together don't retry in lockstep.
+     */
+    private Duration backoff(int attempt) {
+        long initial = settings.initialBackoff().toMillis();
+        long cap = Math.min(settings.maxBackoff().toMillis(), initial << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1));
+    }
+
+    /**
+     * Server-requested wait: OpenAI's retry-after-ms, or Retry-After as seconds or an HTTP date.
+     */
+    static Duration retryAfter(HttpResponse<?> response) {
+        var headers = response.headers();
+        var millis = headers.firstValue("retry-after-ms");
+        if (millis.isPresent()) {
+            try {
+                return Duration.ofMillis((long) Double.parseDouble(millis.get().trim()));
+            } catch (NumberFormatException ignored) {
+                // fall back to Retry-After
+            }
+        }
+        var value = headers.firstValue("retry-after").map(String::trim).orElse(null);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException ignored) {
+            // not seconds; try the date form
+        }
+        try {
+            Duration wait = Duration.between(ZonedDateTime.now(),
+                    ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+            return wait.isNegative() ? Duration.ZERO : wait;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Release a response we are not going to read; unread streamed bodies hold their connection.
+     */
+    private static void discard(HttpResponse<?> response) {
+        try {
+            switch (response.body()) {
+                case InputStream in -> in.close();
+                case Stream<?> lines -> lines.close();
+                case null, default -> { }
+            }
+        } catch (IOException ignored) {
+            // nothing left to release
+        }
+    }
+
+    private static IOException ioException(Throwable cause) {
+        if (cause instanceof IOException io) {
+            return io;
+        }
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        return new IOException(cause);
+    }
+}
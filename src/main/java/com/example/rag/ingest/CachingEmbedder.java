@@ -0,0 +1,177 @@
+package com.example.rag.ingest;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Query embedding cache in front of another Embedder.
+ *
+ * Keys are normalized question text (case, whitespace and a trailing "?", "!" or "." do not
+ * matter), so "Routine for dry skin?" and "routine for  dry skin" share one entry. Other
+ * punctuation and symbols are kept: "age 40+" and "age 40" are different questions.
+ * The cache is bounded by an estimate of its size in bytes and evicts least recently
+ * used entries first; entries older than the TTL are treated as misses.
+ */
+public class CachingEmbedder implements Embedder {
+
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[?!.\\s]+$");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // Rough per-entry overhead: map node, key String, Entry and Vector objects
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+
+    private final Embedder delegate;
+    private final long maxBytes;
+    private final long ttlNanos;
+
+    // Access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public CachingEmbedder(Embedder delegate, long maxBytes, Duration ttl) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @Override
+    public Vector embed(String text) throws Exception {
+        String key = normalize(text);
+        Vector cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Vector vector = delegate.embed(text);
+        store(key, vector);
+        return vector;
+    }
+
+    @Override
+    public List<Vector> embedBatch(List<String> texts) throws Exception {
+        List<Vector> vectors = new ArrayList<>(texts.size());
+        List<Integer> missingPositions = new ArrayList<>();
+        List<String> missingTexts = new ArrayList<>();
+
+        for (int i = 0; i < texts.size(); i++) {
+            Vector cached = lookup(normalize(texts.get(i)));
+            vectors.add(cached);
+            if (cached == null) {
+                missingPositions.add(i);
+                missingTexts.add(texts.get(i));
+            }
+        }
+
+        if (!missingTexts.isEmpty()) {
+            List<Vector> fresh = delegate.embedBatch(missingTexts);
+            for (int j = 0; j < fresh.size(); j++) {
+                int position = missingPositions.get(j);
+                vectors.set(position, fresh.get(j));
+                store(normalize(texts.get(position)), fresh.get(j));
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Cache key for a question: lower-cased, Unicode-normalized, trailing sentence
+     * punctuation removed, whitespace collapsed.
+     */
+    public static String normalize(String text) {
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        s = TRAILING_PUNCTUATION.matcher(s).replaceAll("");
+        return WHITESPACE.matcher(s).replaceAll(" ").trim();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long sizeInBytes() {
+        return currentBytes;
+    }
+
+    private synchronized Vector lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (System.nanoTime() - entry.createdNanos > ttlNanos) {
+            remove(key, entry);
+            expirations.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.vector;
+    }
+
+    private synchronized void store(String key, Vector vector) {
+        Entry entry = new Entry(vector, System.nanoTime(), sizeOf(key, vector));
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            currentBytes -= previous.bytes;
+        }
+        currentBytes += entry.bytes;
+
+        Iterator<Map.Entry<String, Entry>> lru = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && lru.hasNext()) {
+            Entry eldest = lru.next().getValue();
+            lru.remove();
+            currentBytes -= eldest.bytes;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        currentBytes -= entry.bytes;
+    }
+
+    private static long sizeOf(String key, Vector vector) {
+        return ENTRY_OVERHEAD_BYTES + 2L * key.length() + (long) Float.BYTES * vector.dimension();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingEmbedder{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", expirations=" + expirations + ", entries=" + size() + ", bytes=" + sizeInBytes() + '}';
+    }
+
+    private record Entry(Vector vector, long createdNanos, long bytes) {
+    }
+}
@@ -1,14 +1,22 @@
 package com.example.rag.ingest;
 
+import com.example.rag.config.RagConfig;
+import com.example.rag.http.HttpTransport;
 import com.example.rag.model.SkincareDocument;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +25,7 @@ public class DatasetIngestionRunner {
     private static final Logger log = LoggerFactory.getLogger(DatasetIngestionRunner.class);
 
     private static final String COLLECTION_NAME = "skincare_box";
+    private static final String DEFAULT_EMBEDDING_STORE_PATH = "data/embedding-store.bin";
 
     public static void main(String[] args) throws Exception {
         // 1. Read OpenAI API key
@@ -26,61 +35,113 @@ public class DatasetIngestionRunner {
         }
 
         // 2. Init helpers
-        EmbeddingClient embeddingClient = new EmbeddingClient(apiKey);
-        QdrantService qdrantService = new QdrantService();
-        ObjectMapper objectMapper = new ObjectMapper();
+        HttpTransport transport = RagConfig.createTransport();
+        EmbeddingClient embeddingClient = new EmbeddingClient(
+                apiKey, EmbeddingClient.EncodingFormat.parse(System.getenv("OPENAI_EMBEDDING_ENCODING")),
+                RagConfig.openAiBaseUrl(), transport);
+        // The runner creates the collection, so it applies the quantization settings
+        // (oversampling only matters for searches, which the runner does not do)
+        QdrantService qdrantService = new QdrantService(
+                RagConfig.qdrantUrl(),
+                Quantization.parse(System.getenv("VECTOR_QUANTIZATION")),
+                Boolean.parseBoolean(System.getenv("QDRANT_VECTORS_ON_DISK")),
+                1.0,
+                transport);
 
-        // 3. Load dataset from resources
-        List<SkincareDocument> docs = loadDataset(objectMapper);
-        log.info("Loaded {} documents from skincare_dataset.json", docs.size());
+        ingest(embeddingClient, qdrantService);
+        log.info("Ingestion completed successfully.");
+    }
 
-        // 4. Ensure collection exists in Qdrant
-        qdrantService.ensureCollection(COLLECTION_NAME);
-        log.info("Collection {} is ready", COLLECTION_NAME);
+    /**
+     * Ingest skincare_dataset.json into the given vector store. The local embedding store
+     * makes unchanged documents free to re-ingest, so this is also cheap at application startup.
+     */
+    public static void ingest(EmbeddingClient embeddingClient, VectorStore vectorStore) throws Exception {
+        String storePath = System.getenv("EMBEDDING_STORE_PATH");
+        if (storePath == null || storePath.isBlank()) {
+            storePath = DEFAULT_EMBEDDING_STORE_PATH;
+        }
+        try (EmbeddingStore store = EmbeddingStore.open(Path.of(storePath), embeddingClient.getModel())) {
+            log.info("Embedding store {} holds {} vectors", storePath, store.size());
+            StoredEmbedder embedder = new StoredEmbedder(embeddingClient, store);
+            runPipeline(embedder, vectorStore, new ObjectMapper());
+            log.info("Embeddings reused from store: {}, requested from API: {}",
+                    embedder.getReused(), embedder.getEmbedded());
+        }
+    }
 
-// 5. Generate embeddings
-        List<List<Double>> embeddings = new ArrayList<>();
-        for (SkincareDocument doc : docs) {
-            String embeddingInput = buildEmbeddingText(doc);
-            log.info("Embedding doc id={} type={} ...", doc.getId(), doc.getType());
+    private static void runPipeline(Embedder embedder,
+                                    VectorStore vectorStore,
+                                    ObjectMapper objectMapper) throws Exception {
 
-            List<Double> vector = embeddingClient.embed(embeddingInput);
-            embeddings.add(vector);
-        }
+        // 3. Ensure collection exists in the vector store
+        vectorStore.ensureCollection(COLLECTION_NAME);
+        log.info("Collection {} is ready", COLLECTION_NAME);
 
-// 6. Build Qdrant points with numeric IDs
-        List<QdrantPoint> points = new ArrayList<>();
+        // 4. Stream the dataset through parse -> embed -> upsert; unchanged documents are skipped
+        //    and points whose doc_id is gone from the dataset are deleted
+        IngestionPipeline pipeline = new IngestionPipeline(
+                embedder,
+                vectorStore,
+                objectMapper,
+                COLLECTION_NAME,
+                intEnv("INGEST_EMBED_WORKERS", 4),
+                intEnv("INGEST_EMBED_BATCH_SIZE", 256),
+                intEnv("INGEST_UPSERT_BATCH_SIZE", 512),
+                intEnv("INGEST_QUEUE_CAPACITY", 8)
+        );
 
-        for (int i = 0; i < docs.size(); i++) {
-            SkincareDocument doc = docs.get(i);
-            List<Double> vector = embeddings.get(i);
+        try (InputStream is = DatasetIngestionRunner.class
+                .getClassLoader()
+                .getResourceAsStream("skincare_dataset.json")) {
 
-            // Build payload: here we keep the original string id
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("doc_id", doc.getId());        // original string id
-            payload.put("type", doc.getType());
-            payload.put("title", doc.getTitle());
-            payload.put("name", doc.getName());
-            payload.put("brand", doc.getBrand());
-            payload.put("category", doc.getCategory());
-            payload.put("text", doc.getText());
-            payload.put("skin_type", doc.getSkinType());
-            payload.put("concerns", doc.getConcerns());
-            payload.put("age_range", doc.getAgeRange());
+            if (is == null) {
+                throw new IllegalStateException("Cannot find skincare_dataset.json on classpath");
+            }
 
-            long numericId = i + 1L; // Qdrant point id: 1, 2, 3...
-            points.add(new QdrantPoint(numericId, vector, payload));
+            pipeline.run(is);
         }
+    }
 
-// 7. Upsert to Qdrant
-        qdrantService.upsertBatch(COLLECTION_NAME, points);
-        log.info("Ingestion completed successfully.");
+    /**
+     * Keyword index over the documents of skincare_dataset.json that the vector store holds
+     * in the same version (same point id and content_hash), with the same payloads, so its
+     * hits can be fused with vector hits by doc_id. Documents the store lacks or holds with
+     * other content are left out, so the keyword leg never returns what the vector leg can't.
+     */
+    public static LexicalIndex buildLexicalIndex(ObjectMapper objectMapper, VectorStore vectorStore) throws Exception {
+        Map<Long, String> storedHashes = vectorStore.fetchPayloadField(COLLECTION_NAME, "content_hash");
+        LexicalIndex.Builder builder = LexicalIndex.builder();
+        int skipped = 0;
+        for (SkincareDocument doc : readDataset(objectMapper)) {
+            String hash = contentHash(buildEmbeddingText(doc));
+            if (!hash.equals(storedHashes.get(pointId(doc.getId())))) {
+                skipped++;
+                continue;
+            }
+            builder.add(buildLexicalText(doc), buildPayload(doc, hash));
+        }
+        LexicalIndex index = builder.build();
+        if (skipped > 0 || index.size() < storedHashes.size()) {
+            log.warn("Keyword index covers {} of the {} points in {}; {} dataset documents are missing "
+                    + "from the vector store or differ from it", index.size(), storedHashes.size(),
+                    COLLECTION_NAME, skipped);
+        }
+        return index;
     }
 
     /**
-     * Load dataset from classpath resource skincare_dataset.json
+     * The payloads the vector store holds for skincare_dataset.json, in dataset order.
      */
-    private static List<SkincareDocument> loadDataset(ObjectMapper objectMapper) throws Exception {
+    public static List<Map<String, Object>> datasetPayloads(ObjectMapper objectMapper) throws IOException {
+        List<Map<String, Object>> payloads = new ArrayList<>();
+        for (SkincareDocument doc : readDataset(objectMapper)) {
+            payloads.add(buildPayload(doc, contentHash(buildEmbeddingText(doc))));
+        }
+        return payloads;
+    }
+
+    private static SkincareDocument[] readDataset(ObjectMapper objectMapper) throws IOException {
         try (InputStream is = DatasetIngestionRunner.class
                 .getClassLoader()
                 .getResourceAsStream("skincare_dataset.json")) {
@@ -88,16 +149,71 @@ public class DatasetIngestionRunner {
             if (is == null) {
                 throw new IllegalStateException("Cannot find skincare_dataset.json on classpath");
             }
+            return objectMapper.readValue(is, SkincareDocument[].class);
+        }
+    }
 
-            return objectMapper.readValue(is, new TypeReference<List<SkincareDocument>>() {});
+    /**
+     * Read a positive integer setting from the environment, falling back to a default.
+     */
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Stable Qdrant point id for a document: the first 64 bits of SHA-256(doc_id),
+     * with the sign bit cleared because Qdrant ids are unsigned.
+     * Unlike list positions, it does not change when other documents are added or removed.
+     */
+    public static long pointId(String docId) {
+        byte[] digest = sha256(docId);
+        return ByteBuffer.wrap(digest).getLong() & Long.MAX_VALUE;
+    }
+
+    /**
+     * Hash of the text we embed; stored in the payload so the next run can tell
+     * whether a document changed without comparing vectors.
+     */
+    static String contentHash(String embeddingText) {
+        return HexFormat.of().formatHex(sha256(embeddingText));
+    }
+
+    private static byte[] sha256(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
     }
 
+    /**
+     * Build the Qdrant payload for a document: here we keep the original string id.
+     */
+    static Map<String, Object> buildPayload(SkincareDocument doc, String contentHash) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("doc_id", doc.getId());        // original string id
+        payload.put("content_hash", contentHash);
+        payload.put("type", doc.getType());
+        payload.put("title", doc.getTitle());
+        payload.put("name", doc.getName());
+        payload.put("brand", doc.getBrand());
+        payload.put("category", doc.getCategory());
+        payload.put("text", doc.getText());
+        payload.put("skin_type", doc.getSkinType());
+        payload.put("concerns", doc.getConcerns());
+        payload.put("age_range", doc.getAgeRange());
+        return payload;
+    }
+
     /**
      * Build a text chunk that will be sent to embeddings model.
      * We combine the most important fields into one string.
      */
-    private static String buildEmbeddingText(SkincareDocument doc) {
+    static String buildEmbeddingText(SkincareDocument doc) {
         StringBuilder sb = new StringBuilder();
 
         if (doc.getTitle() != null) {
@@ -130,4 +246,28 @@ public class DatasetIngestionRunner {
 
         return sb.toString();
     }
+
+    /**
+     * Text for the keyword index: the fields people quote verbatim (names, brand, actives)
+     * plus the description.
+     */
+    static String buildLexicalText(SkincareDocument doc) {
+        StringBuilder sb = new StringBuilder();
+        for (String field : new String[]{doc.getTitle(), doc.getName(), doc.getBrand()}) {
+            if (field != null) {
+                sb.append(field).append("\n");
+            }
+        }
+        if (doc.getActives() != null) {
+            for (SkincareDocument.Active active : doc.getActives()) {
+                if (active.getName() != null) {
+                    sb.append(active.getName()).append("\n");
+                }
+            }
+        }
+        if (doc.getText() != null) {
+            sb.append(doc.getText());
+        }
+        return sb.toString();
+    }
 }
@@ -0,0 +1,17 @@
+package com.example.rag.ingest;
+
+import java.util.List;
+
+/**
+ * Turns text into embedding vectors.
+ * Implemented by the OpenAI client itself and by layers that sit in front of it.
+ */
+public interface Embedder {
+
+    Vector embed(String text) throws Exception;
+
+    /**
+     * Result i belongs to texts.get(i).
+     */
+    List<Vector> embedBatch(List<String> texts) throws Exception;
+}
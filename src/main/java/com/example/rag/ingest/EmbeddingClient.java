@@ -1,63 +1,272 @@
 package com.example.rag.ingest;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.example.rag.http.HttpTransport;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
 
+import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 
-public class EmbeddingClient {
+public class EmbeddingClient implements Embedder {
 
-    private static final String OPENAI_EMBEDDINGS_URL = "https://api.openai.com/v1/embeddings";
+    public static final String DEFAULT_BASE_URL = "https://api.openai.com/v1";
     private static final String MODEL = "text-embedding-3-small"; // 1536-dim embeddings
 
+    // OpenAI limits for a single /v1/embeddings call, and for each input in it
+    private static final int MAX_INPUTS_PER_REQUEST = 2048;
+    private static final int MAX_TOKENS_PER_REQUEST = 300_000;
+    private static final int MAX_TOKENS_PER_INPUT = 8192;
+
+    // Tokenizer of the text-embedding-3 models
+    private static final Encoding ENCODING = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
     private final String apiKey;
-    private final HttpClient httpClient;
+    private final String embeddingsUrl;
+    private final HttpTransport transport;
     private final ObjectMapper objectMapper;
+    private final EncodingFormat encodingFormat;
+
+    /**
+     * How the API returns each vector: a JSON array of decimal numbers, or base64 of
+     * little-endian float32 (about 4x fewer bytes and no per-element number parsing).
+     */
+    public enum EncodingFormat {
+        FLOAT("float"),
+        BASE64("base64");
+
+        private final String wireName;
+
+        EncodingFormat(String wireName) {
+            this.wireName = wireName;
+        }
+
+        /**
+         * Parse "float" / "base64" (case-insensitive); null or blank means BASE64.
+         */
+        public static EncodingFormat parse(String name) {
+            if (name == null || name.isBlank()) {
+                return BASE64;
+            }
+            for (EncodingFormat format : values()) {
+                if (format.wireName.equalsIgnoreCase(name.trim())) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown embedding encoding format: " + name);
+        }
+    }
 
     public EmbeddingClient(String apiKey) {
+        this(apiKey, EncodingFormat.BASE64);
+    }
+
+    public EmbeddingClient(String apiKey, EncodingFormat encodingFormat) {
+        this(apiKey, encodingFormat, DEFAULT_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl OpenAI-compatible API root, e.g. https://api.openai.com/v1 or a local stub
+     */
+    public EmbeddingClient(String apiKey, EncodingFormat encodingFormat, String baseUrl) {
+        this(apiKey, encodingFormat, baseUrl, new HttpTransport());
+    }
+
+    /**
+     * @param transport shared HTTP transport; embedding calls are idempotent, so they may be hedged
+     */
+    public EmbeddingClient(String apiKey, EncodingFormat encodingFormat, String baseUrl, HttpTransport transport) {
         this.apiKey = apiKey;
-        this.httpClient = HttpClient.newHttpClient();
+        this.embeddingsUrl = baseUrl + "/embeddings";
+        this.encodingFormat = encodingFormat;
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
     }
 
+    /**
+     * Name of the embedding model; the local embedding store is keyed by it.
+     */
+    public String getModel() {
+        return MODEL;
+    }
+
     /**
      * Create embedding vector for given text using OpenAI embeddings API.
      */
-    public List<Double> embed(String text) throws Exception {
-        // Build request JSON: { "model": "...", "input": "..." }
-        JsonNode requestBody = objectMapper.createObjectNode()
-                .put("model", MODEL)
-                .put("input", text);
+    @Override
+    public Vector embed(String text) throws Exception {
+        return embedBatch(List.of(text)).get(0);
+    }
+
+    /**
+     * Create embedding vectors for many texts, packing them into as few API calls as the
+     * per-request input and token limits allow. Result i belongs to texts.get(i).
+     *
+     * @throws IllegalArgumentException if a text is longer than the model's 8192-token input
+     *                                  limit (checked before anything is sent)
+     */
+    @Override
+    public List<Vector> embedBatch(List<String> texts) throws Exception {
+        int[] inputTokens = new int[texts.size()];
+        for (int i = 0; i < texts.size(); i++) {
+            inputTokens[i] = countTokens(texts.get(i), i);
+        }
+
+        List<Vector> vectors = new ArrayList<>(texts.size());
+        int start = 0;
+        while (start < texts.size()) {
+            int end = start;
+            long tokens = 0;
+            while (end < texts.size() && end - start < MAX_INPUTS_PER_REQUEST) {
+                if (end > start && tokens + inputTokens[end] > MAX_TOKENS_PER_REQUEST) {
+                    break;
+                }
+                tokens += inputTokens[end];
+                end++;
+            }
+
+            vectors.addAll(requestEmbeddings(texts.subList(start, end)));
+            start = end;
+        }
+
+        return vectors;
+    }
+
+    /**
+     * One /v1/embeddings call for the given inputs. OpenAI does not guarantee the order
+     * of "data" items, so every vector is placed by its "index" field.
+     */
+    private List<Vector> requestEmbeddings(List<String> inputs) throws Exception {
+        // Build request JSON: { "model": "...", "encoding_format": "...", "input": ["...", "..."] }
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        requestBody.put("model", MODEL);
+        requestBody.put("encoding_format", encodingFormat.wireName);
+        ArrayNode inputArray = requestBody.putArray("input");
+        for (String input : inputs) {
+            inputArray.add(input);
+        }
 
         String bodyString = objectMapper.writeValueAsString(requestBody);
 
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(OPENAI_EMBEDDINGS_URL))
+                .uri(URI.create(embeddingsUrl))
                 .header("Authorization", "Bearer " + apiKey)
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(bodyString))
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<byte[]> response = transport.sendIdempotent(request, HttpResponse.BodyHandlers.ofByteArray(), "embedding", "embed");
 
         if (response.statusCode() >= 400) {
             throw new RuntimeException("OpenAI embeddings API error: " + response.statusCode() +
-                    " body: " + response.body());
+                    " body: " + new String(response.body(), StandardCharsets.UTF_8));
+        }
+
+        Vector[] vectors = readEmbeddings(response.body(), inputs.size());
+
+        for (int i = 0; i < vectors.length; i++) {
+            if (vectors[i] == null) {
+                throw new RuntimeException("OpenAI embeddings API returned no vector for input " + i);
+            }
+        }
+
+        return Arrays.asList(vectors);
+    }
+
+    /**
+     * Stream-parse { "data": [{ "index": i, "embedding": ... }, ...] } without building a tree.
+     * The embedding is either a JSON number array ("float") or a base64 string of
+     * little-endian float32 values ("base64").
+     */
+    Vector[] readEmbeddings(byte[] body, int expected) throws IOException {
+        Vector[] vectors = new Vector[expected];
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("OpenAI embeddings response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"data".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    int index = -1;
+                    float[] vector = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String itemField = parser.currentName();
+                        JsonToken itemValue = parser.nextToken();
+                        if ("index".equals(itemField)) {
+                            index = parser.getIntValue();
+                        } else if ("embedding".equals(itemField) && itemValue == JsonToken.VALUE_STRING) {
+                            vector = decodeBase64(parser.getText());
+                        } else if ("embedding".equals(itemField) && itemValue == JsonToken.START_ARRAY) {
+                            vector = readFloatArray(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (index < 0 || index >= expected) {
+                        throw new RuntimeException("OpenAI embeddings API returned unexpected index: " + index);
+                    }
+                    if (vector != null) {
+                        vectors[index] = Vector.wrap(vector);
+                    }
+                }
+            }
         }
+        return vectors;
+    }
 
-        JsonNode root = objectMapper.readTree(response.body());
-        JsonNode embeddingArray = root.path("data").get(0).path("embedding");
+    private static float[] readFloatArray(JsonParser parser) throws IOException {
+        float[] values = new float[1536];
+        int n = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = parser.getFloatValue();
+        }
+        return n == values.length ? values : Arrays.copyOf(values, n);
+    }
 
-        List<Double> vector = new ArrayList<>();
-        for (JsonNode v : embeddingArray) {
-            vector.add(v.asDouble());
+    /**
+     * Decode a base64 payload of little-endian float32 values.
+     */
+    static float[] decodeBase64(String encoded) {
+        byte[] bytes = Base64.getDecoder().decode(encoded);
+        if (bytes.length % Float.BYTES != 0) {
+            throw new IllegalArgumentException("base64 embedding length is not a multiple of 4 bytes: " + bytes.length);
         }
+        float[] values = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+        return values;
+    }
 
-        return vector;
+    /**
+     * Exact token count of one input, as the API will count it for the request limits.
+     */
+    private static int countTokens(String text, int index) {
+        int tokens = ENCODING.countTokens(text);
+        if (tokens > MAX_TOKENS_PER_INPUT) {
+            throw new IllegalArgumentException("Embedding input " + index + " has " + tokens
+                    + " tokens, over the model limit of " + MAX_TOKENS_PER_INPUT);
+        }
+        return tokens;
     }
 }
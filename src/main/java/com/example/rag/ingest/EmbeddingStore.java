@@ -0,0 +1,204 @@
+package com.example.rag.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent, append-only store of embeddings keyed by SHA-256(model + text).
+ *
+ * File layout (little-endian):
+ *   header:  int magic "EMBS", int version, int dimension
+ *   records: 32-byte key, then dimension float32 values
+ *
+ * Existing records are memory-mapped on open, so a restart only scans the keys and never
+ * deserializes vectors; a vector is copied out of the mapping when it is looked up.
+ * Records written in this session are appended to the file and kept in memory.
+ */
+public class EmbeddingStore implements Closeable {
+
+    private static final int MAGIC = 0x534D4245; // "EMBS" in little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int KEY_BYTES = 32;
+
+    // Keep each mapping well below the 2 GB MappedByteBuffer limit
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final String model;
+    private final FileChannel channel;
+    private int dimension;
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private int recordsPerSegment;
+
+    // key -> record number in the mapped part of the file
+    private final Map<ByteBuffer, Integer> mapped = new HashMap<>();
+    // records appended since open
+    private final Map<ByteBuffer, Vector> appended = new HashMap<>();
+
+    private EmbeddingStore(String model, FileChannel channel) {
+        this.model = model;
+        this.channel = channel;
+    }
+
+    /**
+     * Open (or create) the store file for the given embedding model.
+     */
+    public static EmbeddingStore open(Path file, String model) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        EmbeddingStore store = new EmbeddingStore(model, channel);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_BYTES) {
+            channel.truncate(0);
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not an embedding store file (bad magic or version)");
+        }
+        dimension = header.getInt();
+
+        int recordBytes = recordBytes();
+        long records = (size - HEADER_BYTES) / recordBytes;
+        long validSize = HEADER_BYTES + records * recordBytes;
+        if (validSize < size) {
+            // Drop a half-written record left by an interrupted run
+            channel.truncate(validSize);
+        }
+
+        recordsPerSegment = (int) Math.max(1, MAX_SEGMENT_BYTES / recordBytes);
+        for (long first = 0; first < records; first += recordsPerSegment) {
+            long count = Math.min(recordsPerSegment, records - first);
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + first * recordBytes, count * recordBytes);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segments.add(segment);
+
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[KEY_BYTES];
+                segment.get(i * recordBytes, key);
+                mapped.put(ByteBuffer.wrap(key), (int) (first + i));
+            }
+        }
+    }
+
+    /**
+     * Stored vector for this text under this store's model, or null.
+     */
+    public synchronized Vector get(String text) {
+        ByteBuffer key = key(text);
+        Vector vector = appended.get(key);
+        if (vector != null) {
+            return vector;
+        }
+        Integer record = mapped.get(key);
+        return record == null ? null : readMapped(record);
+    }
+
+    /**
+     * Append a vector for this text. The first vector fixes the store's dimension.
+     */
+    public synchronized void put(String text, Vector vector) throws IOException {
+        ByteBuffer key = key(text);
+        if (appended.containsKey(key) || mapped.containsKey(key)) {
+            return;
+        }
+        if (dimension == 0) {
+            dimension = vector.dimension();
+            writeHeader();
+        } else if (vector.dimension() != dimension) {
+            throw new IllegalArgumentException("Embedding store holds " + dimension
+                    + "-dim vectors, got " + vector.dimension() + "; delete the store file after changing models");
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(recordBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        record.put(key.duplicate());
+        record.asFloatBuffer().put(vector.values());
+        record.clear();
+
+        long position = channel.size();
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        appended.put(key, vector);
+    }
+
+    public synchronized int size() {
+        return mapped.size() + appended.size();
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    private Vector readMapped(int record) {
+        MappedByteBuffer segment = segments.get(record / recordsPerSegment);
+        int offset = (record % recordsPerSegment) * recordBytes() + KEY_BYTES;
+        float[] values = new float[dimension];
+        segment.slice(offset, dimension * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer()
+                .get(values);
+        return Vector.wrap(values);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(dimension);
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    private int recordBytes() {
+        return KEY_BYTES + dimension * Float.BYTES;
+    }
+
+    private ByteBuffer key(String text) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(model.getBytes(StandardCharsets.UTF_8));
+            sha256.update((byte) 0);
+            sha256.update(text.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(sha256.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,875 @@
+package com.example.rag.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Hierarchical Navigable Small World graph for approximate cosine search.
+ *
+ * Parameters:
+ * - m: neighbors kept per node on upper layers (2 * m on layer 0)
+ * - efConstruction: candidate list size while inserting (higher = better graph, slower build)
+ * - efSearch: candidate list size while searching (higher = better recall, slower query)
+ *
+ * Vectors are stored L2-normalized, so similarity is a dot product. Insertion is thread-safe:
+ * neighbor lists are copy-on-write arrays guarded by a per-node lock, and only insertions
+ * that raise the top layer take the global entry-point lock.
+ * Deleted or replaced points stay in the graph as tombstones and are skipped in results,
+ * until compacted() rebuilds the graph from the live points.
+ *
+ * An index can be saved to a snapshot file and loaded back by memory-mapping it:
+ * vectors are read in place from the mapping and payloads are parsed on first use,
+ * so loading costs little more than reading the neighbor lists.
+ */
+public class HnswIndex {
+
+    private static final int MAGIC = 0x57534E48; // "HNSW" in little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int NODE_RECORD_BYTES = 40;
+
+    // Filtered searches widen the beam by this much before dropping non-matching nodes
+    private static final int FILTERED_EF_FACTOR = 4;
+
+    private static final ObjectMapper PAYLOAD_MAPPER = new ObjectMapper();
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private volatile int efSearch;
+    private final double levelMultiplier;
+
+    private volatile int dimension;
+
+    private final Object growLock = new Object();
+    private volatile Node[] nodes = new Node[64];
+    private volatile int nodeCount;
+
+    private final Map<Long, Integer> nodeById = new ConcurrentHashMap<>();
+
+    // Top of the graph; replaced as a whole so readers always see a consistent pair
+    private final ReentrantLock entryLock = new ReentrantLock();
+    private volatile Entry entry;
+
+    // Vectors of nodes loaded from a snapshot, read in place from the mapping
+    private FloatBuffer mappedVectors;
+
+    public HnswIndex(int m, int efConstruction, int efSearch) {
+        if (m < 2 || efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("HNSW requires m >= 2 and positive ef values");
+        }
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * Number of live (not deleted) points.
+     */
+    public int size() {
+        return nodeById.size();
+    }
+
+    /**
+     * Number of deleted or replaced points still kept in the graph.
+     */
+    public int tombstones() {
+        return nodeCount - nodeById.size();
+    }
+
+    /**
+     * Insert a point. An existing point with the same id is replaced (the old node becomes a tombstone).
+     * Safe to call from several threads at once.
+     */
+    public void insert(long id, Vector vector, Map<String, Object> payload) {
+        setDimension(vector.dimension());
+        float[] q = LocalVectorStore.normalized(vector);
+
+        int level = randomLevel();
+        Node node = new Node(id, level, q, payload == null ? Map.of() : payload);
+        int index = addNode(node);
+
+        Integer previous = nodeById.put(id, index);
+        if (previous != null) {
+            nodes[previous].deleted = true;
+        }
+
+        Entry top = entry;
+        boolean raisesTop = top == null || level > top.level;
+        if (raisesTop) {
+            entryLock.lock();
+        }
+        try {
+            top = entry;
+            if (top == null) {
+                entry = new Entry(index, level);
+                return;
+            }
+
+            int current = top.node;
+            float currentSim = similarity(current, q);
+            for (int layer = top.level; layer > level; layer--) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    for (int neighbor : links(current, layer)) {
+                        float sim = similarity(neighbor, q);
+                        if (sim > currentSim) {
+                            current = neighbor;
+                            currentSim = sim;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+
+            for (int layer = Math.min(level, top.level); layer >= 0; layer--) {
+                ScoredHeap candidates = searchLayer(q, current, efConstruction, layer);
+                int maxLinks = layer == 0 ? maxM0 : m;
+                int[] selected = selectNeighbors(candidates, m);
+
+                synchronized (node) {
+                    node.links[layer] = selected;
+                }
+                for (int neighbor : selected) {
+                    connect(neighbor, index, layer, maxLinks);
+                }
+                current = candidates.best();
+            }
+
+            if (level > top.level) {
+                entry = new Entry(index, level);
+            }
+        } finally {
+            if (raisesTop) {
+                entryLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Mark a point as deleted; it is kept as a routing node but never returned.
+     */
+    public void delete(long id) {
+        Integer index = nodeById.remove(id);
+        if (index != null) {
+            nodes[index].deleted = true;
+        }
+    }
+
+    /**
+     * Approximate topK neighbors of the vector, best first.
+     */
+    public List<SearchResult> search(Vector vector, int topK) {
+        return search(vector, topK, SearchFilter.NONE);
+    }
+
+    /**
+     * Approximate topK neighbors among points whose payload matches the filter, best first.
+     *
+     * With a filter, the graph is searched with a wider beam and non-matching nodes are
+     * dropped from the result. If that leaves fewer than topK (a selective filter, or a beam
+     * full of tombstones), the matching points are scanned exactly instead.
+     */
+    public List<SearchResult> search(Vector vector, int topK, SearchFilter filter) {
+        Entry top = entry;
+        if (top == null || topK <= 0) {
+            return List.of();
+        }
+        float[] q = LocalVectorStore.normalized(vector);
+        int[] found;
+        if (filter.isEmpty()) {
+            found = searchNodes(q, topK, top, Math.max(efSearch, topK), node -> true);
+        } else {
+            int ef = Math.max(efSearch, topK) * FILTERED_EF_FACTOR;
+            found = searchNodes(q, topK, top, ef, node -> filter.matches(nodes[node].payload()));
+        }
+        if (found.length < Math.min(topK, size())) {
+            found = filteredScan(q, topK, filter);
+        }
+
+        List<SearchResult> results = new ArrayList<>(found.length);
+        for (int index : found) {
+            results.add(new SearchResult(similarity(index, q), nodes[index].payload()));
+        }
+        return results;
+    }
+
+    /**
+     * Point id -> value of one payload field, for every live point.
+     */
+    public Map<Long, String> payloadField(String field) {
+        Map<Long, String> values = new HashMap<>();
+        for (Map.Entry<Long, Integer> e : nodeById.entrySet()) {
+            Object value = nodes[e.getValue()].payload().get(field);
+            values.put(e.getKey(), value == null ? null : value.toString());
+        }
+        return values;
+    }
+
+    /**
+     * A new index holding only the live points, with the graph rebuilt from their vectors.
+     * Must not run concurrently with insert/delete.
+     */
+    public HnswIndex compacted() {
+        HnswIndex compact = new HnswIndex(m, efConstruction, efSearch);
+        nodeById.values().parallelStream()
+                .forEach(node -> compact.insert(nodes[node].id, Vector.wrap(vectorOf(node)), nodes[node].payload()));
+        return compact;
+    }
+
+    /**
+     * Average recall@k of the graph against exact search, using `queries` randomly chosen
+     * stored points as queries. The query point itself is left out of both the exact and the
+     * graph results, since finding a stored vector's own node says nothing about recall.
+     * 1.0 means the graph returned exactly the true top k.
+     */
+    public double measureRecall(int queries, int k, long seed) {
+        int count = nodeCount;
+        Entry top = entry;
+        if (top == null || size() < 2) {
+            return 1.0;
+        }
+        Random random = new Random(seed);
+        double total = 0;
+        int measured = 0;
+        for (int i = 0; i < queries; i++) {
+            int probe = random.nextInt(count);
+            if (nodes[probe].deleted) {
+                continue;
+            }
+            float[] q = vectorOf(probe);
+
+            LocalVectorStore.TopK exact = new LocalVectorStore.TopK(Math.min(k, size() - 1));
+            for (int n = 0; n < count; n++) {
+                if (!nodes[n].deleted && n != probe) {
+                    exact.offer(n, similarity(n, q));
+                }
+            }
+            int[] expected = exact.rowsBestFirst();
+            int[] approx = searchNodes(q, expected.length, top, Math.max(efSearch, k), node -> node != probe);
+
+            BitSet truth = new BitSet(count);
+            for (int n : expected) {
+                truth.set(n);
+            }
+            int hits = 0;
+            for (int n : approx) {
+                if (truth.get(n)) {
+                    hits++;
+                }
+            }
+            total += (double) hits / expected.length;
+            measured++;
+        }
+        return measured == 0 ? 1.0 : total / measured;
+    }
+
+    // ===== Snapshot =====
+
+    /**
+     * Write the index to a snapshot file (via a temp file and atomic rename).
+     * Must not run concurrently with insert/delete.
+     *
+     * Layout (little-endian):
+     *   header: magic, version, dimension, m, efConstruction, nodeCount, entryNode, entryLevel
+     *   nodes:  nodeCount x (long id, int level, int deleted, long linksPos, long payloadPos, int payloadLen, int pad)
+     *   vectors: nodeCount x dimension float32
+     *   links:  per node, per layer: int count, count x int
+     *   payloads: UTF-8 JSON objects
+     */
+    public void save(Path file) throws IOException {
+        int count = nodeCount;
+        Entry top = entry;
+
+        byte[][] payloadJson = new byte[count][];
+        long vectorsPos = HEADER_BYTES + (long) count * NODE_RECORD_BYTES;
+        long linksPos = vectorsPos + (long) count * dimension * Float.BYTES;
+        long[] nodeLinksPos = new long[count];
+        long position = linksPos;
+        for (int i = 0; i < count; i++) {
+            nodeLinksPos[i] = position;
+            Node node = nodes[i];
+            for (int layer = 0; layer <= node.level; layer++) {
+                position += Integer.BYTES * (1L + links(i, layer).length);
+            }
+        }
+        long[] payloadPos = new long[count];
+        for (int i = 0; i < count; i++) {
+            payloadJson[i] = PAYLOAD_MAPPER.writeValueAsBytes(nodes[i].payload());
+            payloadPos[i] = position;
+            position += payloadJson[i].length;
+        }
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream raw = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(raw, 1 << 16))) {
+            LittleEndian le = new LittleEndian(out);
+            le.writeInt(MAGIC);
+            le.writeInt(VERSION);
+            le.writeInt(dimension);
+            le.writeInt(m);
+            le.writeInt(efConstruction);
+            le.writeInt(count);
+            le.writeInt(top == null ? -1 : top.node);
+            le.writeInt(top == null ? -1 : top.level);
+
+            for (int i = 0; i < count; i++) {
+                Node node = nodes[i];
+                le.writeLong(node.id);
+                le.writeInt(node.level);
+                le.writeInt(node.deleted ? 1 : 0);
+                le.writeLong(nodeLinksPos[i]);
+                le.writeLong(payloadPos[i]);
+                le.writeInt(payloadJson[i].length);
+                le.writeInt(0);
+            }
+            for (int i = 0; i < count; i++) {
+                for (float v : vectorOf(i)) {
+                    le.writeFloat(v);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                for (int layer = 0; layer <= nodes[i].level; layer++) {
+                    int[] neighbors = links(i, layer);
+                    le.writeInt(neighbors.length);
+                    for (int n : neighbors) {
+                        le.writeInt(n);
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                out.write(payloadJson[i]);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a snapshot written by save(). The file is memory-mapped: vectors stay in the
+     * mapping and payload JSON is parsed when a point is first returned.
+     */
+    public static HnswIndex load(Path file, int efSearch) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("HNSW snapshot larger than 2 GB is not supported: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an HNSW snapshot (bad magic or version): " + file);
+        }
+        int dimension = buffer.getInt(8);
+        int m = buffer.getInt(12);
+        int efConstruction = buffer.getInt(16);
+        int count = buffer.getInt(20);
+        int entryNode = buffer.getInt(24);
+        int entryLevel = buffer.getInt(28);
+
+        HnswIndex index = new HnswIndex(m, efConstruction, efSearch);
+        index.dimension = dimension;
+
+        int vectorsPos = HEADER_BYTES + count * NODE_RECORD_BYTES;
+        index.mappedVectors = buffer.slice(vectorsPos, count * dimension * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer();
+
+        Node[] nodes = new Node[Math.max(64, count)];
+        for (int i = 0; i < count; i++) {
+            int record = HEADER_BYTES + i * NODE_RECORD_BYTES;
+            long id = buffer.getLong(record);
+            int level = buffer.getInt(record + 8);
+            boolean deleted = buffer.getInt(record + 12) != 0;
+            int linksPos = (int) buffer.getLong(record + 16);
+            int payloadPos = (int) buffer.getLong(record + 24);
+            int payloadLen = buffer.getInt(record + 32);
+
+            Node node = new Node(id, level, null, null);
+            node.deleted = deleted;
+            node.payloadSource = buffer.slice(payloadPos, payloadLen);
+            int position = linksPos;
+            for (int layer = 0; layer <= level; layer++) {
+                int n = buffer.getInt(position);
+                int[] neighbors = new int[n];
+                for (int j = 0; j < n; j++) {
+                    neighbors[j] = buffer.getInt(position + Integer.BYTES * (1 + j));
+                }
+                node.links[layer] = neighbors;
+                position += Integer.BYTES * (1 + n);
+            }
+            nodes[i] = node;
+            if (!deleted) {
+                index.nodeById.put(id, i);
+            }
+        }
+        index.nodes = nodes;
+        index.nodeCount = count;
+        index.entry = entryNode < 0 ? null : new Entry(entryNode, entryLevel);
+        return index;
+    }
+
+    // ===== Graph internals =====
+
+    private int[] searchNodes(float[] q, int topK, Entry top, int ef, IntPredicate accept) {
+        int current = top.node;
+        float currentSim = similarity(current, q);
+        for (int layer = top.level; layer > 0; layer--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int neighbor : links(current, layer)) {
+                    float sim = similarity(neighbor, q);
+                    if (sim > currentSim) {
+                        current = neighbor;
+                        currentSim = sim;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        ScoredHeap candidates = searchLayer(q, current, ef, 0);
+        int[] ordered = candidates.nodesBestFirst();
+        int[] live = new int[Math.min(topK, ordered.length)];
+        int n = 0;
+        for (int i = 0; i < ordered.length && n < live.length; i++) {
+            if (!nodes[ordered[i]].deleted && accept.test(ordered[i])) {
+                live[n++] = ordered[i];
+            }
+        }
+        return n == live.length ? live : Arrays.copyOf(live, n);
+    }
+
+    /**
+     * Exact topK over the live nodes matching the filter.
+     */
+    private int[] filteredScan(float[] q, int topK, SearchFilter filter) {
+        ScoredHeap best = new ScoredHeap(topK + 1, false);   // worst on top
+        for (int node : nodeById.values()) {
+            if (!filter.isEmpty() && !filter.matches(nodes[node].payload())) {
+                continue;
+            }
+            best.push(node, similarity(node, q));
+            if (best.size() > topK) {
+                best.pop();
+            }
+        }
+        return best.nodesBestFirst();
+    }
+
+    /**
+     * Best-first search on one layer starting from entryNode; returns up to ef closest nodes.
+     */
+    private ScoredHeap searchLayer(float[] q, int entryNode, int ef, int layer) {
+        BitSet visited = new BitSet(nodeCount);
+        visited.set(entryNode);
+
+        float entrySim = similarity(entryNode, q);
+        ScoredHeap candidates = new ScoredHeap(ef * 2, true);   // best on top
+        ScoredHeap results = new ScoredHeap(ef + 1, false);     // worst on top
+        candidates.push(entryNode, entrySim);
+        results.push(entryNode, entrySim);
+
+        while (candidates.size() > 0) {
+            float candidateSim = candidates.topScore();
+            int candidate = candidates.pop();
+            if (results.size() >= ef && candidateSim < results.topScore()) {
+                break;
+            }
+            for (int neighbor : links(candidate, layer)) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float sim = similarity(neighbor, q);
+                if (results.size() < ef || sim > results.topScore()) {
+                    candidates.push(neighbor, sim);
+                    results.push(neighbor, sim);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Neighbor selection heuristic: walk candidates best first and keep one only if it is
+     * closer to the new point than to every neighbor already kept; this spreads links in
+     * different directions. Remaining slots are filled with the best skipped candidates.
+     */
+    private int[] selectNeighbors(ScoredHeap candidates, int max) {
+        int[] ordered = candidates.nodesBestFirst();
+        float[] scores = candidates.scoresBestFirst();
+        if (ordered.length <= max) {
+            return ordered;
+        }
+
+        int[] selected = new int[max];
+        float[][] selectedVectors = new float[max][];
+        int n = 0;
+        boolean[] skipped = new boolean[ordered.length];
+        for (int i = 0; i < ordered.length && n < max; i++) {
+            float[] v = vectorOf(ordered[i]);
+            boolean keep = true;
+            for (int j = 0; j < n; j++) {
+                if (dot(v, selectedVectors[j]) > scores[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[n] = ordered[i];
+                selectedVectors[n++] = v;
+            } else {
+                skipped[i] = true;
+            }
+        }
+        for (int i = 0; i < ordered.length && n < max; i++) {
+            if (skipped[i]) {
+                selected[n++] = ordered[i];
+            }
+        }
+        return n == max ? selected : Arrays.copyOf(selected, n);
+    }
+
+    /**
+     * Add a back-link from `node` to `newNode`, pruning node's list if it gets too long.
+     */
+    private void connect(int node, int newNode, int layer, int maxLinks) {
+        Node target = nodes[node];
+        synchronized (target) {
+            int[] current = target.links[layer];
+            int[] extended = Arrays.copyOf(current, current.length + 1);
+            extended[current.length] = newNode;
+            if (extended.length <= maxLinks) {
+                target.links[layer] = extended;
+                return;
+            }
+
+            float[] base = vectorOf(node);
+            ScoredHeap candidates = new ScoredHeap(extended.length, false);
+            for (int n : extended) {
+                candidates.push(n, similarity(n, base));
+            }
+            target.links[layer] = selectNeighbors(candidates, maxLinks);
+        }
+    }
+
+    private int[] links(int node, int layer) {
+        Node n = nodes[node];
+        synchronized (n) {
+            return layer < n.links.length ? n.links[layer] : new int[0];
+        }
+    }
+
+    private int addNode(Node node) {
+        synchronized (growLock) {
+            int index = nodeCount;
+            Node[] current = nodes;
+            if (index == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[index] = node;
+            nodes = current;
+            nodeCount = index + 1;
+            return index;
+        }
+    }
+
+    private void setDimension(int d) {
+        if (dimension == 0) {
+            synchronized (growLock) {
+                if (dimension == 0) {
+                    dimension = d;
+                }
+            }
+        }
+        if (d != dimension) {
+            throw new IllegalArgumentException("Index holds " + dimension + "-dim vectors, got " + d);
+        }
+    }
+
+    private int randomLevel() {
+        double u = 1.0 - ThreadLocalRandom.current().nextDouble(); // (0, 1]
+        return (int) (-Math.log(u) * levelMultiplier);
+    }
+
+    private float similarity(int node, float[] q) {
+        float[] v = nodes[node].vector;
+        if (v != null) {
+            return dot(v, q);
+        }
+        FloatBuffer mapped = mappedVectors;
+        int base = node * dimension;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < q.length; i += 4) {
+            s0 += mapped.get(base + i) * q[i];
+            s1 += mapped.get(base + i + 1) * q[i + 1];
+            s2 += mapped.get(base + i + 2) * q[i + 2];
+            s3 += mapped.get(base + i + 3) * q[i + 3];
+        }
+        for (; i < q.length; i++) {
+            s0 += mapped.get(base + i) * q[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private float[] vectorOf(int node) {
+        float[] v = nodes[node].vector;
+        if (v != null) {
+            return v;
+        }
+        float[] copy = new float[dimension];
+        mappedVectors.get(node * dimension, copy);
+        return copy;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private record Entry(int node, int level) {
+    }
+
+    private static class Node {
+        final long id;
+        final int level;
+        final float[] vector; // null for nodes whose vector lives in the snapshot mapping
+        final int[][] links;
+        volatile boolean deleted;
+
+        private volatile Map<String, Object> payload;
+        ByteBuffer payloadSource; // snapshot JSON, parsed on first use
+
+        Node(long id, int level, float[] vector, Map<String, Object> payload) {
+            this.id = id;
+            this.level = level;
+            this.vector = vector;
+            this.payload = payload;
+            this.links = new int[level + 1][];
+            for (int layer = 0; layer <= level; layer++) {
+                links[layer] = new int[0];
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> payload() {
+            Map<String, Object> p = payload;
+            if (p == null) {
+                synchronized (this) {
+                    p = payload;
+                    if (p == null) {
+                        byte[] json = new byte[payloadSource.remaining()];
+                        payloadSource.duplicate().get(json);
+                        try {
+                            p = PAYLOAD_MAPPER.readValue(json, Map.class);
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Corrupt payload in HNSW snapshot: "
+                                    + new String(json, StandardCharsets.UTF_8), e);
+                        }
+                        payload = p;
+                        payloadSource = null;
+                    }
+                }
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Binary heap of (node, score) on primitive arrays; maxOnTop chooses which end is the root.
+     */
+    private static class ScoredHeap {
+        private int[] nodes;
+        private float[] scores;
+        private int size;
+        private final boolean maxOnTop;
+
+        ScoredHeap(int capacity, boolean maxOnTop) {
+            this.nodes = new int[Math.max(4, capacity)];
+            this.scores = new float[nodes.length];
+            this.maxOnTop = maxOnTop;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            nodes[size] = node;
+            scores[size] = score;
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!above(i, parent)) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            nodes[0] = nodes[size];
+            scores[0] = scores[size];
+            int i = 0;
+            while (true) {
+                int left = 2 * i + 1;
+                int right = left + 1;
+                int first = i;
+                if (left < size && above(left, first)) {
+                    first = left;
+                }
+                if (right < size && above(right, first)) {
+                    first = right;
+                }
+                if (first == i) {
+                    return top;
+                }
+                swap(i, first);
+                i = first;
+            }
+        }
+
+        /**
+         * Node with the highest score.
+         */
+        int best() {
+            int best = 0;
+            for (int i = 1; i < size; i++) {
+                if (scores[i] > scores[best]) {
+                    best = i;
+                }
+            }
+            return nodes[best];
+        }
+
+        int[] nodesBestFirst() {
+            Integer[] order = order();
+            int[] out = new int[size];
+            for (int i = 0; i < size; i++) {
+                out[i] = nodes[order[i]];
+            }
+            return out;
+        }
+
+        float[] scoresBestFirst() {
+            Integer[] order = order();
+            float[] out = new float[size];
+            for (int i = 0; i < size; i++) {
+                out[i] = scores[order[i]];
+            }
+            return out;
+        }
+
+        private Integer[] order() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+            return order;
+        }
+
+        private boolean above(int a, int b) {
+            return maxOnTop ? scores[a] > scores[b] : scores[a] < scores[b];
+        }
+
+        private void swap(int a, int b) {
+            int n = nodes[a];
+            nodes[a] = nodes[b];
+            nodes[b] = n;
+            float s = scores[a];
+            scores[a] = scores[b];
+            scores[b] = s;
+        }
+    }
+
+    /**
+     * Little-endian writer over a DataOutputStream (which is big-endian by contract).
+     */
+    private static class LittleEndian {
+        private final DataOutputStream out;
+
+        LittleEndian(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeInt(int v) throws IOException {
+            out.writeInt(Integer.reverseBytes(v));
+        }
+
+        void writeLong(long v) throws IOException {
+            out.writeLong(Long.reverseBytes(v));
+        }
+
+        void writeFloat(float v) throws IOException {
+            writeInt(Float.floatToRawIntBits(v));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.rag.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process vector store backed by one HnswIndex per collection.
+ *
+ * Collections are loaded from "{snapshotDir}/{collection}.hnsw" when the snapshot exists;
+ * call saveSnapshots() after ingestion to persist changes. Upserts insert points in
+ * parallel, which the index supports. Deleted and replaced points stay in the graph as
+ * tombstones; once they make up COMPACT_TOMBSTONE_FRACTION of it, saveSnapshots() rebuilds
+ * the index from the live points first, so graph and snapshot do not grow with every change.
+ */
+public class HnswVectorStore implements VectorStore {
+
+    private static final Logger log = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    static final double COMPACT_TOMBSTONE_FRACTION = 0.2;
+
+    private final Path snapshotDir;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+
+    private final Map<String, HnswIndex> indexes = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> dirty = new ConcurrentHashMap<>();
+
+    public HnswVectorStore(Path snapshotDir, int m, int efConstruction, int efSearch) {
+        this.snapshotDir = snapshotDir;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+    }
+
+    @Override
+    public void ensureCollection(String collectionName) throws IOException {
+        if (indexes.containsKey(collectionName)) {
+            return;
+        }
+        Path snapshot = snapshotPath(collectionName);
+        HnswIndex index;
+        if (Files.exists(snapshot)) {
+            long t0 = System.nanoTime();
+            index = HnswIndex.load(snapshot, efSearch);
+            log.info("Loaded HNSW snapshot {} ({} points) in {} ms",
+                    snapshot, index.size(), (System.nanoTime() - t0) / 1_000_000);
+        } else {
+            index = new HnswIndex(m, efConstruction, efSearch);
+        }
+        indexes.putIfAbsent(collectionName, index);
+    }
+
+    @Override
+    public void upsertBatch(String collectionName, List<QdrantPoint> points) {
+        HnswIndex index = index(collectionName);
+        points.parallelStream().forEach(p -> index.insert(p.getId(), p.getVector(), p.getPayload()));
+        dirty.put(collectionName, Boolean.TRUE);
+    }
+
+    @Override
+    public Map<Long, String> fetchPayloadField(String collectionName, String payloadField) {
+        HnswIndex index = indexes.get(collectionName);
+        return index == null ? Map.of() : index.payloadField(payloadField);
+    }
+
+    @Override
+    public void deletePoints(String collectionName, List<Long> ids) {
+        HnswIndex index = index(collectionName);
+        for (Long id : ids) {
+            index.delete(id);
+        }
+        dirty.put(collectionName, Boolean.TRUE);
+    }
+
+    @Override
+    public List<SearchResult> search(String collectionName, Vector vector, int topK, SearchFilter filter) {
+        HnswIndex index = indexes.get(collectionName);
+        return index == null ? List.of() : index.search(vector, topK, filter);
+    }
+
+    /**
+     * Write snapshots of collections changed since they were loaded or last saved,
+     * compacting those with too many tombstones. Must not run concurrently with upserts or deletes.
+     */
+    public void saveSnapshots() throws IOException {
+        for (Map.Entry<String, HnswIndex> e : indexes.entrySet()) {
+            if (dirty.remove(e.getKey()) != null) {
+                HnswIndex index = compactIfNeeded(e.getKey(), e.getValue());
+                Path snapshot = snapshotPath(e.getKey());
+                index.save(snapshot);
+                log.info("Saved HNSW snapshot {} ({} points)", snapshot, index.size());
+            }
+        }
+    }
+
+    private HnswIndex compactIfNeeded(String collectionName, HnswIndex index) {
+        int tombstones = index.tombstones();
+        if (tombstones == 0 || tombstones < COMPACT_TOMBSTONE_FRACTION * (tombstones + index.size())) {
+            return index;
+        }
+        long t0 = System.nanoTime();
+        HnswIndex compact = index.compacted();
+        // Searches still running on the old index finish there
+        indexes.put(collectionName, compact);
+        log.info("Compacted HNSW {}: dropped {} tombstones, {} points rebuilt in {} ms",
+                collectionName, tombstones, compact.size(), (System.nanoTime() - t0) / 1_000_000);
+        return compact;
+    }
+
+    /**
+     * Log recall@k of each collection's graph against exact search, to tune efSearch.
+     */
+    public void logRecall(int queries, int k) {
+        for (Map.Entry<String, HnswIndex> e : indexes.entrySet()) {
+            long t0 = System.nanoTime();
+            double recall = e.getValue().measureRecall(queries, k, 42);
+            log.info("HNSW {}: recall@{} = {} (efSearch={}, {} queries, {} ms)",
+                    e.getKey(), k, String.format("%.3f", recall), e.getValue().getEfSearch(),
+                    queries, (System.nanoTime() - t0) / 1_000_000);
+        }
+    }
+
+    private HnswIndex index(String collectionName) {
+        HnswIndex index = indexes.get(collectionName);
+        if (index == null) {
+            throw new IllegalStateException("Collection " + collectionName + " does not exist");
+        }
+        return index;
+    }
+
+    private Path snapshotPath(String collectionName) {
+        return snapshotDir.resolve(collectionName + ".hnsw");
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.rag.ingest;
+
+import com.example.rag.metrics.RagMetrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Question retrieval: vector search, optionally fused with keyword (BM25) search.
+ *
+ * Both legs return a few more candidates than asked for, and their rankings are merged with
+ * reciprocal-rank fusion: a document scores sum(1 / (60 + rank)) over the legs it appears
+ * in, so documents ranked well by both come first and the legs' incomparable raw scores
+ * never meet. Fused hits carry the fused score.
+ *
+ * The keyword leg starts on its own thread before the question is embedded and is long
+ * finished by the time vector search returns, so it adds no latency.
+ *
+ * Single-question retrieval records the embed, vector_search and keyword_search stages
+ * in {@link RagMetrics}.
+ */
+public class HybridRetriever {
+
+    private static final int RRF_K = 60;
+    // Candidates taken from each leg per requested hit
+    private static final int CANDIDATE_FACTOR = 2;
+
+    private final Embedder embedder;
+    private final VectorStore vectorStore;
+    private final LexicalIndex lexicalIndex;   // null: vector search only
+    private final String collectionName;
+    private final ExecutorService lexicalExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public HybridRetriever(Embedder embedder, VectorStore vectorStore, LexicalIndex lexicalIndex, String collectionName) {
+        this.embedder = embedder;
+        this.vectorStore = vectorStore;
+        this.lexicalIndex = lexicalIndex;
+        this.collectionName = collectionName;
+    }
+
+    /**
+     * Embed the question and return it with the topK hits that match the filter.
+     */
+    public Retrieval retrieve(String question, int topK, SearchFilter filter) throws Exception {
+        int candidates = lexicalIndex == null ? topK : topK * CANDIDATE_FACTOR;
+        CompletableFuture<Leg> lexical = null;
+        if (lexicalIndex != null) {
+            lexical = CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                List<SearchResult> hits = lexicalIndex.search(question, candidates, filter);
+                return new Leg(hits, recordStage("keyword_search", start));
+            }, lexicalExecutor);
+        }
+
+        long start = System.nanoTime();
+        Vector vector = embedder.embed(question);
+        Duration embedTime = recordStage("embed", start);
+
+        start = System.nanoTime();
+        List<SearchResult> vectorHits = vectorStore.search(collectionName, vector, candidates, filter);
+        Duration vectorSearchTime = recordStage("vector_search", start);
+
+        if (lexical == null) {
+            return new Retrieval(vector, vectorHits, vectorHits, null, embedTime, vectorSearchTime, null);
+        }
+        Leg keyword = await(lexical);
+        return new Retrieval(vector, fuse(List.of(vectorHits, keyword.hits()), topK), vectorHits, keyword.hits(),
+                embedTime, vectorSearchTime, keyword.time());
+    }
+
+    /**
+     * Retrieval for many questions: one embeddings call and one batch search for all of
+     * them, then per-question fusion with keyword hits. Result i belongs to questions.get(i).
+     */
+    public List<List<SearchResult>> retrieveBatch(List<String> questions, int topK) throws Exception {
+        List<Vector> vectors = embedder.embedBatch(questions);
+        int candidates = lexicalIndex == null ? topK : topK * CANDIDATE_FACTOR;
+        List<List<SearchResult>> vectorHits = vectorStore.searchBatch(collectionName, vectors, candidates);
+        if (lexicalIndex == null) {
+            return vectorHits;
+        }
+
+        List<List<SearchResult>> fused = new ArrayList<>(questions.size());
+        for (int i = 0; i < questions.size(); i++) {
+            List<SearchResult> lexicalHits = lexicalIndex.search(questions.get(i), candidates, SearchFilter.NONE);
+            fused.add(fuse(List.of(vectorHits.get(i), lexicalHits), topK));
+        }
+        return fused;
+    }
+
+    /**
+     * Reciprocal-rank fusion of several best-first rankings, keyed by doc_id.
+     */
+    static List<SearchResult> fuse(List<List<SearchResult>> rankings, int topK) {
+        Map<Object, Double> scores = new LinkedHashMap<>();
+        Map<Object, Map<String, Object>> payloads = new LinkedHashMap<>();
+        for (List<SearchResult> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Map<String, Object> payload = ranking.get(rank).getPayload();
+                Object docId = payload.get("doc_id");
+                scores.merge(docId, 1.0 / (RRF_K + rank + 1), Double::sum);
+                payloads.putIfAbsent(docId, payload);
+            }
+        }
+
+        List<Map.Entry<Object, Double>> ordered = new ArrayList<>(scores.entrySet());
+        ordered.sort(Map.Entry.<Object, Double>comparingByValue().reversed());
+
+        List<SearchResult> fused = new ArrayList<>(Math.min(topK, ordered.size()));
+        for (int i = 0; i < ordered.size() && i < topK; i++) {
+            Map.Entry<Object, Double> e = ordered.get(i);
+            fused.add(new SearchResult(e.getValue(), payloads.get(e.getKey())));
+        }
+        return fused;
+    }
+
+    private static Duration recordStage(String stage, long startNanos) {
+        Duration time = Duration.ofNanos(System.nanoTime() - startNanos);
+        RagMetrics.stageTimer(stage).record(time);
+        return time;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The embedded question, what was retrieved for it, and how long each step took.
+     * hits are the final (fused) results; vectorHits and keywordHits are each leg's candidates
+     * with its own scores: cosine similarity and BM25. keywordHits and keywordSearchTime are
+     * null without a keyword index.
+     */
+    public record Retrieval(Vector questionVector,
+                            List<SearchResult> hits,
+                            List<SearchResult> vectorHits,
+                            List<SearchResult> keywordHits,
+                            Duration embedTime,
+                            Duration vectorSearchTime,
+                            Duration keywordSearchTime) {
+    }
+
+    private record Leg(List<SearchResult> hits, Duration time) {
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.rag.ingest;
+
+import com.example.rag.model.SkincareDocument;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Three-stage incremental ingestion pipeline:
+ * - parse: streams documents out of the dataset JSON array, skips the ones whose content hash
+ *   matches what is already stored, and groups the rest into embedding batches
+ * - embed: N workers call the embeddings API, one batch per call
+ * - upsert: collects embedded points into chunks and writes them to the vector store
+ *
+ * Stages are connected by bounded queues, so a slow stage blocks the one before it
+ * (backpressure) and only a few batches are held in memory at any time.
+ *
+ * Point ids are derived from doc_id, so an unchanged document keeps its point; after the
+ * upserts, points whose doc_id no longer appears in the dataset are deleted.
+ */
+public class IngestionPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    private static final String CONTENT_HASH_FIELD = "content_hash";
+
+    private final Embedder embedder;
+    private final VectorStore vectorStore;
+    private final ObjectMapper objectMapper;
+    private final String collectionName;
+
+    private final int embedWorkers;
+    private final int embedBatchSize;
+    private final int upsertBatchSize;
+    private final int queueCapacity;
+
+    private final StageStats parseStats = new StageStats("parse");
+    private final StageStats embedStats = new StageStats("embed");
+    private final StageStats upsertStats = new StageStats("upsert");
+
+    // Filled at the start of a run: what the collection holds (point id -> content hash)
+    // and which ids the dataset still contains
+    private Map<Long, String> storedHashes = Map.of();
+    private final Set<Long> seenIds = ConcurrentHashMap.newKeySet();
+    private final AtomicLong unchanged = new AtomicLong();
+
+    public IngestionPipeline(Embedder embedder,
+                             VectorStore vectorStore,
+                             ObjectMapper objectMapper,
+                             String collectionName,
+                             int embedWorkers,
+                             int embedBatchSize,
+                             int upsertBatchSize,
+                             int queueCapacity) {
+        if (embedWorkers < 1 || embedBatchSize < 1 || upsertBatchSize < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Pipeline parallelism, batch sizes and queue capacity must be positive");
+        }
+        this.embedder = embedder;
+        this.vectorStore = vectorStore;
+        this.objectMapper = objectMapper;
+        this.collectionName = collectionName;
+        this.embedWorkers = embedWorkers;
+        this.embedBatchSize = embedBatchSize;
+        this.upsertBatchSize = upsertBatchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Run the pipeline over a JSON array of documents. Blocks until every document is
+     * upserted or any stage fails; the first failure is rethrown and the other stages are cancelled.
+     */
+    public void run(InputStream dataset) throws Exception {
+        storedHashes = vectorStore.fetchPayloadField(collectionName, CONTENT_HASH_FIELD);
+        log.info("Collection {} currently holds {} points", collectionName, storedHashes.size());
+
+        BlockingQueue<DocBatch> embedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<QdrantPoint>> upsertQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        AtomicInteger runningEmbedWorkers = new AtomicInteger(embedWorkers);
+
+        // Every stage mostly waits (on the queues or on HTTP), so each gets a virtual thread;
+        // embedWorkers still bounds how many embedding requests are in flight
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("ingest-", 0).factory());
+        CompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+        long startNanos = System.nanoTime();
+        try {
+            stages.submit(() -> {
+                parse(dataset, embedQueue);
+                return null;
+            });
+            for (int i = 0; i < embedWorkers; i++) {
+                stages.submit(() -> {
+                    embed(embedQueue, upsertQueue);
+                    // The last embed worker to finish tells the upserter there is nothing more to come
+                    if (runningEmbedWorkers.decrementAndGet() == 0) {
+                        upsertQueue.put(List.of());
+                    }
+                    return null;
+                });
+            }
+            stages.submit(() -> {
+                upsert(upsertQueue);
+                return null;
+            });
+
+            // Tasks complete in any order; the first failure cancels the rest (shutdownNow below)
+            for (int i = 0; i < embedWorkers + 2; i++) {
+                try {
+                    stages.take().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception cause) {
+                        throw cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Long> staleIds = new ArrayList<>();
+        for (Long id : storedHashes.keySet()) {
+            if (!seenIds.contains(id)) {
+                staleIds.add(id);
+            }
+        }
+        for (int from = 0; from < staleIds.size(); from += upsertBatchSize) {
+            vectorStore.deletePoints(collectionName,
+                    staleIds.subList(from, Math.min(staleIds.size(), from + upsertBatchSize)));
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        log.info("Ingestion diff: {} upserted (new or changed), {} unchanged, {} deleted",
+                upsertStats.docs.get(), unchanged.get(), staleIds.size());
+        log.info("Parsed {} documents in {} s ({} docs/sec overall)",
+                parseStats.docs.get(), String.format("%.2f", seconds), rate(parseStats.docs.get(), seconds));
+        for (StageStats stats : List.of(parseStats, embedStats, upsertStats)) {
+            log.info("  stage {}", stats);
+        }
+    }
+
+    private void parse(InputStream dataset, BlockingQueue<DocBatch> embedQueue) throws Exception {
+        try (JsonParser parser = objectMapper.getFactory().createParser(dataset)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalStateException("Dataset must be a JSON array of documents");
+            }
+
+            List<PendingDoc> docs = new ArrayList<>(embedBatchSize);
+            int parsed = 0;
+            long t0 = System.nanoTime();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                SkincareDocument doc = objectMapper.readValue(parser, SkincareDocument.class);
+                parsed++;
+
+                long id = DatasetIngestionRunner.pointId(doc.getId());
+                if (!seenIds.add(id)) {
+                    log.warn("Duplicate doc_id {} in dataset; only one of its points is kept", doc.getId());
+                }
+                String text = DatasetIngestionRunner.buildEmbeddingText(doc);
+                String hash = DatasetIngestionRunner.contentHash(text);
+                if (hash.equals(storedHashes.get(id))) {
+                    unchanged.incrementAndGet();
+                } else {
+                    docs.add(new PendingDoc(doc, id, text, hash));
+                }
+
+                if (docs.size() == embedBatchSize) {
+                    parseStats.record(parsed, t0);
+                    embedQueue.put(new DocBatch(docs));
+                    docs = new ArrayList<>(embedBatchSize);
+                    parsed = 0;
+                    t0 = System.nanoTime();
+                }
+            }
+            parseStats.record(parsed, t0);
+            if (!docs.isEmpty()) {
+                embedQueue.put(new DocBatch(docs));
+            }
+        } finally {
+            // One end marker per embed worker
+            for (int i = 0; i < embedWorkers; i++) {
+                embedQueue.put(DocBatch.END);
+            }
+        }
+    }
+
+    private void embed(BlockingQueue<DocBatch> embedQueue,
+                       BlockingQueue<List<QdrantPoint>> upsertQueue) throws Exception {
+        while (true) {
+            DocBatch batch = embedQueue.take();
+            if (batch == DocBatch.END) {
+                return;
+            }
+
+            long t0 = System.nanoTime();
+            List<String> inputs = new ArrayList<>(batch.docs().size());
+            for (PendingDoc pending : batch.docs()) {
+                inputs.add(pending.text());
+            }
+            List<Vector> vectors = embedder.embedBatch(inputs);
+
+            List<QdrantPoint> points = new ArrayList<>(batch.docs().size());
+            for (int i = 0; i < batch.docs().size(); i++) {
+                PendingDoc pending = batch.docs().get(i);
+                Map<String, Object> payload = DatasetIngestionRunner.buildPayload(pending.doc(), pending.hash());
+                points.add(new QdrantPoint(pending.id(), vectors.get(i), payload));
+            }
+            embedStats.record(points.size(), t0);
+            log.info("Embedded {} documents (total {})", points.size(), embedStats.docs.get());
+
+            upsertQueue.put(points);
+        }
+    }
+
+    private void upsert(BlockingQueue<List<QdrantPoint>> upsertQueue) throws Exception {
+        List<QdrantPoint> chunk = new ArrayList<>(upsertBatchSize);
+        while (true) {
+            List<QdrantPoint> points = upsertQueue.take();
+            if (points.isEmpty()) {
+                break;
+            }
+            for (QdrantPoint point : points) {
+                chunk.add(point);
+                if (chunk.size() == upsertBatchSize) {
+                    writeChunk(chunk);
+                    chunk = new ArrayList<>(upsertBatchSize);
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(chunk);
+        }
+    }
+
+    private void writeChunk(List<QdrantPoint> chunk) throws Exception {
+        long t0 = System.nanoTime();
+        vectorStore.upsertBatch(collectionName, chunk);
+        upsertStats.record(chunk.size(), t0);
+    }
+
+    private static String rate(long docs, double seconds) {
+        return seconds > 0 ? String.format("%.1f", docs / seconds) : "n/a";
+    }
+
+    /**
+     * A new or changed document with its point id, embedding text and content hash.
+     */
+    private record PendingDoc(SkincareDocument doc, long id, String text, String hash) {
+    }
+
+    /**
+     * Documents handed from the parse stage to the embed stage.
+     */
+    private record DocBatch(List<PendingDoc> docs) {
+        static final DocBatch END = new DocBatch(List.of());
+    }
+
+    /**
+     * Per-stage counters: documents processed and time spent working on them.
+     * Busy time is summed over all workers of the stage; throughput is documents divided
+     * by the stage's activity window (first batch started to last batch finished).
+     */
+    private static class StageStats {
+        private final String name;
+        private final AtomicLong docs = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastEnd = new AtomicLong();
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        void record(int count, long startNanos) {
+            long end = System.nanoTime();
+            docs.addAndGet(count);
+            busyNanos.addAndGet(end - startNanos);
+            firstStart.accumulateAndGet(startNanos, Math::min);
+            lastEnd.accumulateAndGet(end, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            long n = docs.get();
+            double window = n == 0 ? 0 : (lastEnd.get() - firstStart.get()) / 1e9;
+            return String.format("%-6s docs=%d busy=%.2fs window=%.2fs throughput=%s docs/sec",
+                    name, n, busyNanos.get() / 1e9, window, rate(n, window));
+        }
+    }
+}
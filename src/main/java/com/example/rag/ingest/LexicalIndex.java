@@ -0,0 +1,203 @@
+package com.example.rag.ingest;
+
+import java.io.ByteArrayOutputStream;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * In-process BM25 keyword index, for exact terms that embeddings tend to miss
+ * (brand names, ingredient names).
+ *
+ * Built once through {@link Builder}; read-only afterwards, so searches need no locking.
+ * Each term's postings list is a byte[] of varint pairs (doc gap, term frequency), with
+ * documents in increasing order — a few bytes per posting instead of two boxed ints.
+ */
+public class LexicalIndex {
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // Words too common in questions and descriptions to say anything about a document
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "can", "do", "does", "for", "from", "how",
+            "i", "in", "is", "it", "my", "of", "on", "or", "should", "that", "the", "this", "to", "what",
+            "which", "with", "you", "your");
+
+    // Standard BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final Map<String, Postings> postings;
+    private final int[] docLengths;
+    private final double averageLength;
+    private final List<Map<String, Object>> payloads;
+
+    private LexicalIndex(Map<String, Postings> postings, int[] docLengths, List<Map<String, Object>> payloads) {
+        this.postings = postings;
+        this.docLengths = docLengths;
+        this.payloads = payloads;
+        long total = 0;
+        for (int length : docLengths) {
+            total += length;
+        }
+        this.averageLength = docLengths.length == 0 ? 0 : (double) total / docLengths.length;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return docLengths.length;
+    }
+
+    /**
+     * The topK documents by BM25 score for the query, best first, among those whose payload
+     * matches the filter. Documents sharing no term with the query are never returned.
+     */
+    public List<SearchResult> search(String query, int topK, SearchFilter filter) {
+        if (topK <= 0 || docLengths.length == 0) {
+            return List.of();
+        }
+        double[] scores = new double[docLengths.length];
+        boolean any = false;
+        for (String term : tokenize(query)) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            any = true;
+            double idf = Math.log(1 + (docLengths.length - list.docFrequency + 0.5) / (list.docFrequency + 0.5));
+            byte[] bytes = list.bytes;
+            int pos = 0;
+            int doc = 0;
+            while (pos < bytes.length) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[pos++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                int tf = 0;
+                shift = 0;
+                do {
+                    b = bytes[pos++];
+                    tf |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+
+                doc += gap;
+                double norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        if (!any) {
+            return List.of();
+        }
+
+        LocalVectorStore.TopK best = new LocalVectorStore.TopK(Math.min(topK, docLengths.length));
+        for (int doc = 0; doc < scores.length; doc++) {
+            if (scores[doc] > 0 && (filter.isEmpty() || filter.matches(payloads.get(doc)))) {
+                best.offer(doc, (float) scores[doc]);
+            }
+        }
+        int[] docs = best.rowsBestFirst();
+        float[] docScores = best.scoresBestFirst();
+        List<SearchResult> results = new ArrayList<>(docs.length);
+        for (int i = 0; i < docs.length; i++) {
+            results.add(new SearchResult(docScores[i], payloads.get(docs[i])));
+        }
+        return results;
+    }
+
+    /**
+     * Lower-cased, accent-folded words with stop words removed.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFKD)
+                .replaceAll("\\p{M}+", "")
+                .toLowerCase(Locale.ROOT);
+        for (String word : NON_WORD.split(folded)) {
+            if (!word.isEmpty() && !STOP_WORDS.contains(word)) {
+                terms.add(word);
+            }
+        }
+        return terms;
+    }
+
+    private record Postings(int docFrequency, byte[] bytes) {
+    }
+
+    /**
+     * Collects documents, then freezes them into an index. Not thread-safe.
+     */
+    public static class Builder {
+
+        // Terms in first-seen order; each maps to its growing postings buffer
+        private final Map<String, PostingsBuffer> buffers = new LinkedHashMap<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private final List<Map<String, Object>> payloads = new ArrayList<>();
+
+        /**
+         * Add a document: the text to index and the payload to return for it.
+         */
+        public Builder add(String text, Map<String, Object> payload) {
+            int doc = payloads.size();
+            List<String> terms = tokenize(text);
+            Map<String, Integer> frequencies = new HashMap<>();
+            for (String term : terms) {
+                frequencies.merge(term, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> e : frequencies.entrySet()) {
+                buffers.computeIfAbsent(e.getKey(), t -> new PostingsBuffer()).add(doc, e.getValue());
+            }
+            lengths.add(terms.size());
+            payloads.add(payload);
+            return this;
+        }
+
+        public LexicalIndex build() {
+            Map<String, Postings> postings = new HashMap<>(buffers.size() * 2);
+            for (Map.Entry<String, PostingsBuffer> e : buffers.entrySet()) {
+                PostingsBuffer buffer = e.getValue();
+                postings.put(e.getKey(), new Postings(buffer.count, buffer.out.toByteArray()));
+            }
+            int[] docLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+            return new LexicalIndex(postings, docLengths, List.copyOf(payloads));
+        }
+    }
+
+    private static class PostingsBuffer {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int lastDoc;
+        private int count;
+
+        void add(int doc, int tf) {
+            writeVarint(doc - lastDoc);
+            writeVarint(tf);
+            lastDoc = doc;
+            count++;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
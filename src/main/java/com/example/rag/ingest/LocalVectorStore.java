@@ -0,0 +1,402 @@
+package com.example.rag.ingest;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process vector store with exact cosine search.
+ *
+ * Each collection keeps its vectors L2-normalized in one contiguous float[] (row-major),
+ * so cosine similarity is a plain dot product and a search is a single sequential scan
+ * over memory. The topK best rows are tracked in a bounded min-heap.
+ * For datasets of a few thousand documents this answers in well under a millisecond.
+ *
+ * With quantization, the heap holds only int8 or 1-bit codes (see QuantizedRows): the scan
+ * ranks rows on the codes, and the best `oversampling * topK` candidates are rescored with
+ * the original vectors, which are kept in a scratch file on disk.
+ *
+ * Payload filters are evaluated during the scan, so a filtered search still returns the
+ * best topK matching points.
+ */
+public class LocalVectorStore implements VectorStore {
+
+    private final Map<String, Collection> collections = new ConcurrentHashMap<>();
+
+    private final Quantization quantization;
+    private final double oversampling;
+    private final Path originalsDir;
+
+    public LocalVectorStore() {
+        this(Quantization.NONE, 1.0, null);
+    }
+
+    /**
+     * @param originalsDir where quantized collections keep their original vectors
+     */
+    public LocalVectorStore(Quantization quantization, double oversampling, Path originalsDir) {
+        if (quantization != Quantization.NONE && originalsDir == null) {
+            throw new IllegalArgumentException("Quantized local store needs a directory for original vectors");
+        }
+        this.quantization = quantization;
+        this.oversampling = Math.max(1.0, oversampling);
+        this.originalsDir = originalsDir;
+    }
+
+    @Override
+    public void ensureCollection(String collectionName) {
+        collections.computeIfAbsent(collectionName, name -> new Collection());
+    }
+
+    @Override
+    public void upsertBatch(String collectionName, List<QdrantPoint> points) {
+        collection(collectionName).upsert(points);
+    }
+
+    @Override
+    public Map<Long, String> fetchPayloadField(String collectionName, String payloadField) {
+        Collection collection = collections.get(collectionName);
+        return collection == null ? Map.of() : collection.payloadField(payloadField);
+    }
+
+    @Override
+    public void deletePoints(String collectionName, List<Long> ids) {
+        collection(collectionName).delete(ids);
+    }
+
+    @Override
+    public List<SearchResult> search(String collectionName, Vector vector, int topK, SearchFilter filter) {
+        Collection collection = collections.get(collectionName);
+        return collection == null ? List.of() : collection.search(vector, topK, filter);
+    }
+
+    public int size(String collectionName) {
+        Collection collection = collections.get(collectionName);
+        return collection == null ? 0 : collection.size();
+    }
+
+    private Collection collection(String collectionName) {
+        Collection collection = collections.get(collectionName);
+        if (collection == null) {
+            throw new IllegalStateException("Collection " + collectionName + " does not exist");
+        }
+        return collection;
+    }
+
+    /**
+     * Dot product of row `row` of the matrix with q, four independent accumulators so the
+     * JIT can keep several multiply-adds in flight.
+     */
+    static float dot(float[] matrix, int row, float[] q) {
+        int dim = q.length;
+        int base = row * dim;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < dim; i += 4) {
+            s0 += matrix[base + i] * q[i];
+            s1 += matrix[base + i + 1] * q[i + 1];
+            s2 += matrix[base + i + 2] * q[i + 2];
+            s3 += matrix[base + i + 3] * q[i + 3];
+        }
+        for (; i < dim; i++) {
+            s0 += matrix[base + i] * q[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Unit-length copy of the vector (a zero vector stays zero).
+     */
+    static float[] normalized(Vector vector) {
+        float[] values = vector.toArray();
+        double norm = vector.norm();
+        if (norm > 0) {
+            float inv = (float) (1.0 / norm);
+            for (int i = 0; i < values.length; i++) {
+                values[i] *= inv;
+            }
+        }
+        return values;
+    }
+
+    private class Collection {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private int dimension;
+        private int size;
+        private float[] matrix = new float[0];   // used without quantization
+        private QuantizedRows quantized;         // used with quantization
+        private long[] ids = new long[0];
+        private final List<Map<String, Object>> payloads = new ArrayList<>();
+        private final Map<Long, Integer> rowById = new HashMap<>();
+
+        void upsert(List<QdrantPoint> points) {
+            lock.writeLock().lock();
+            try {
+                for (QdrantPoint point : points) {
+                    Vector vector = point.getVector();
+                    if (dimension == 0) {
+                        dimension = vector.dimension();
+                        if (quantization != Quantization.NONE) {
+                            quantized = new QuantizedRows(quantization, dimension, originalsDir);
+                        }
+                    } else if (vector.dimension() != dimension) {
+                        throw new IllegalArgumentException("Collection holds " + dimension
+                                + "-dim vectors, got " + vector.dimension());
+                    }
+
+                    Integer row = rowById.get(point.getId());
+                    if (row == null) {
+                        row = size++;
+                        ensureCapacity(size);
+                        payloads.add(null);
+                        rowById.put(point.getId(), row);
+                    }
+                    if (quantized == null) {
+                        System.arraycopy(normalized(vector), 0, matrix, row * dimension, dimension);
+                    } else {
+                        quantized.set(row, normalized(vector));
+                    }
+                    ids[row] = point.getId();
+                    payloads.set(row, point.getPayload());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void delete(List<Long> toDelete) {
+            lock.writeLock().lock();
+            try {
+                for (Long id : toDelete) {
+                    Integer row = rowById.remove(id);
+                    if (row == null) {
+                        continue;
+                    }
+                    // Move the last row into the hole to keep the matrix dense
+                    int last = --size;
+                    if (row != last) {
+                        if (quantized == null) {
+                            System.arraycopy(matrix, last * dimension, matrix, row * dimension, dimension);
+                        } else {
+                            quantized.move(last, row);
+                        }
+                        ids[row] = ids[last];
+                        payloads.set(row, payloads.get(last));
+                        rowById.put(ids[row], row);
+                    }
+                    payloads.remove(last);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        Map<Long, String> payloadField(String field) {
+            lock.readLock().lock();
+            try {
+                Map<Long, String> values = new HashMap<>();
+                for (int row = 0; row < size; row++) {
+                    Object value = payloads.get(row).get(field);
+                    values.put(ids[row], value == null ? null : value.toString());
+                }
+                return values;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        List<SearchResult> search(Vector vector, int topK, SearchFilter filter) {
+            lock.readLock().lock();
+            try {
+                if (size == 0 || topK <= 0) {
+                    return List.of();
+                }
+                if (vector.dimension() != dimension) {
+                    throw new IllegalArgumentException("Collection holds " + dimension
+                            + "-dim vectors, got " + vector.dimension());
+                }
+                float[] q = normalized(vector);
+                TopK best = quantized == null ? exactScan(q, topK, filter) : quantizedScan(q, topK, filter);
+
+                int[] rows = best.rowsBestFirst();
+                float[] scores = best.scoresBestFirst();
+                List<SearchResult> results = new ArrayList<>(rows.length);
+                for (int i = 0; i < rows.length; i++) {
+                    results.add(new SearchResult(scores[i], payloads.get(rows[i])));
+                }
+                return results;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private TopK exactScan(float[] q, int topK, SearchFilter filter) {
+            TopK best = new TopK(Math.min(topK, size));
+            if (filter.isEmpty()) {
+                for (int row = 0; row < size; row++) {
+                    best.offer(row, dot(matrix, row, q));
+                }
+            } else {
+                for (int row = 0; row < size; row++) {
+                    if (filter.matches(payloads.get(row))) {
+                        best.offer(row, dot(matrix, row, q));
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Rank all rows on their codes, then rescore the best candidates exactly.
+         */
+        private TopK quantizedScan(float[] q, int topK, SearchFilter filter) {
+            int k = Math.min(topK, size);
+            int candidateCount = (int) Math.min(size, Math.ceil(k * oversampling));
+
+            QuantizedRows.Query query = quantized.prepare(q);
+            TopK candidates = new TopK(candidateCount);
+            for (int row = 0; row < size; row++) {
+                if (filter.isEmpty() || filter.matches(payloads.get(row))) {
+                    candidates.offer(row, quantized.approxScore(row, query));
+                }
+            }
+
+            TopK best = new TopK(k);
+            for (int row : candidates.rowsBestFirst()) {
+                float[] original = quantized.original(row);
+                best.offer(row, dot(original, 0, q));
+            }
+            return best;
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return size;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void ensureCapacity(int rows) {
+            if (ids.length >= rows) {
+                return;
+            }
+            int capacity = Math.max(16, Math.max(rows, ids.length * 2));
+            ids = Arrays.copyOf(ids, capacity);
+            if (quantized == null) {
+                matrix = Arrays.copyOf(matrix, capacity * dimension);
+            } else {
+                quantized.ensureCapacity(capacity);
+            }
+        }
+    }
+
+    /**
+     * Bounded min-heap of (row, score) on primitive arrays: the root is the worst of the
+     * current best k, so most rows are rejected with a single comparison.
+     */
+    static class TopK {
+
+        private final int[] rows;
+        private final float[] scores;
+        private int count;
+        private boolean sorted;
+
+        TopK(int k) {
+            this.rows = new int[k];
+            this.scores = new float[k];
+        }
+
+        void offer(int row, float score) {
+            if (count < rows.length) {
+                rows[count] = row;
+                scores[count] = score;
+                siftUp(count++);
+            } else if (score > scores[0]) {
+                rows[0] = row;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        int size() {
+            return count;
+        }
+
+        int[] rowsBestFirst() {
+            sortBestFirst();
+            return Arrays.copyOf(rows, count);
+        }
+
+        float[] scoresBestFirst() {
+            sortBestFirst();
+            return Arrays.copyOf(scores, count);
+        }
+
+        /**
+         * Heap-sort in place: repeatedly move the minimum to the end, leaving best-first order.
+         * The heap is no longer usable for offer() afterwards.
+         */
+        private void sortBestFirst() {
+            if (sorted) {
+                return;
+            }
+            for (int end = count - 1; end > 0; end--) {
+                swap(0, end);
+                int n = count;
+                count = end;
+                siftDown(0);
+                count = n;
+            }
+            sorted = true;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (scores[i] >= scores[parent]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                int right = left + 1;
+                int smallest = i;
+                if (left < count && scores[left] < scores[smallest]) {
+                    smallest = left;
+                }
+                if (right < count && scores[right] < scores[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int r = rows[a];
+            rows[a] = rows[b];
+            rows[b] = r;
+            float s = scores[a];
+            scores[a] = scores[b];
+            scores[b] = s;
+        }
+    }
+}
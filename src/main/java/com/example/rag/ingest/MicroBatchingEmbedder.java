@@ -0,0 +1,196 @@
+package com.example.rag.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges single-text embed calls from concurrent requests into batched calls to another Embedder.
+ *
+ * A dispatcher waits for the first queued text, then keeps collecting for at most
+ * {@code window} or until {@code maxBatchSize} texts are queued, and sends them as one
+ * embedBatch call. Each caller blocks on its own future. One upstream request then serves
+ * many questions, which saves request-rate limit at the cost of up to one window of latency.
+ *
+ * Batches are sent concurrently, so a slow upstream call does not hold back the next window.
+ * If the delegate rejects a batch with IllegalArgumentException (an input it cannot embed),
+ * its texts are embedded one by one, so only the bad input fails.
+ * embedBatch calls are already batched and go straight to the delegate.
+ *
+ * A caller waits at most {@code timeout} for its vector. If the dispatcher stops (closed,
+ * interrupted or crashed), queued callers fail at once and later calls fail fast instead of
+ * waiting on a queue nobody reads.
+ */
+public class MicroBatchingEmbedder implements Embedder, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(MicroBatchingEmbedder.class);
+
+    private final Embedder delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Duration timeout;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread dispatcher;
+    // Why the dispatcher stopped; null while it runs
+    private volatile Throwable stopped;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong inputs = new AtomicLong();
+
+    /**
+     * @param timeout longest a caller waits for its vector, batching window included
+     */
+    public MicroBatchingEmbedder(Embedder delegate, Duration window, int maxBatchSize, Duration timeout) {
+        this.delegate = delegate;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.timeout = timeout;
+        this.dispatcher = Thread.ofVirtual().name("embed-batcher").start(this::dispatch);
+    }
+
+    @Override
+    public Vector embed(String text) throws Exception {
+        checkRunning();
+        Pending pending = new Pending(text, new CompletableFuture<>());
+        queue.add(pending);
+        if (stopped != null) {
+            // The dispatcher stopped after the check above and may not have seen this one
+            failQueued();
+        }
+        try {
+            return pending.result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            queue.remove(pending);
+            pending.result.cancel(false);
+            throw new TimeoutException("Question embedding did not finish within " + timeout.toMillis() + " ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception ex) {
+                throw ex;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public List<Vector> embedBatch(List<String> texts) throws Exception {
+        return delegate.embedBatch(texts);
+    }
+
+    /**
+     * Stop the dispatcher; queued and later embed calls fail. embedBatch keeps working.
+     */
+    @Override
+    public void close() {
+        dispatcher.interrupt();
+        senders.shutdown();
+    }
+
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (true) {
+                batch = new ArrayList<>(maxBatchSize);
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                List<Pending> toSend = batch;
+                senders.execute(() -> send(toSend));
+            }
+        } catch (Throwable e) {
+            if (!(e instanceof InterruptedException)) {
+                log.error("Embedding batcher stopped", e);
+            }
+            stopped = e;
+            batch.forEach(p -> p.result.completeExceptionally(stoppedException()));
+            failQueued();
+        }
+    }
+
+    private void checkRunning() {
+        if (stopped != null) {
+            throw stoppedException();
+        }
+    }
+
+    private IllegalStateException stoppedException() {
+        return new IllegalStateException("Embedding batcher is stopped", stopped);
+    }
+
+    private void failQueued() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(stoppedException());
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        batches.incrementAndGet();
+        inputs.addAndGet(batch.size());
+        try {
+            List<String> texts = batch.stream().map(Pending::text).toList();
+            List<Vector> vectors = delegate.embedBatch(texts);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(vectors.get(i));
+            }
+        } catch (IllegalArgumentException e) {
+            // An input was rejected (e.g. over the token limit); it must not fail its neighbours
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+            } else {
+                log.warn("Batched embedding of {} questions rejected ({}), embedding them one by one",
+                        batch.size(), e.getMessage());
+                batch.forEach(this::sendAlone);
+            }
+        } catch (Exception e) {
+            log.warn("Batched embedding of {} questions failed: {}", batch.size(), e.getMessage());
+            batch.forEach(p -> p.result.completeExceptionally(e));
+        }
+    }
+
+    private void sendAlone(Pending pending) {
+        try {
+            pending.result.complete(delegate.embedBatch(List.of(pending.text)).get(0));
+        } catch (Exception e) {
+            pending.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Number of upstream embedBatch calls made for single-text embed calls.
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Number of single-text embed calls served by those batches.
+     */
+    public long getInputs() {
+        return inputs.get();
+    }
+
+    private record Pending(String text, CompletableFuture<Vector> result) {
+    }
+}
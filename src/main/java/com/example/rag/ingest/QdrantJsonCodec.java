@@ -0,0 +1,417 @@
+package com.example.rag.ingest;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming (JsonGenerator / JsonParser) encoding of Qdrant request and response bodies.
+ * Nothing here builds a JsonNode tree: vectors are written element by element and
+ * search hits are read token by token.
+ */
+public class QdrantJsonCodec {
+
+    private final ObjectMapper objectMapper;
+
+    public QdrantJsonCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Body for PUT /collections/{name}/points: { "points": [{ id, vector, payload }, ...] }.
+     * Points are serialized lazily while the HTTP client reads the body, so at most one
+     * point's JSON is buffered at a time.
+     */
+    public HttpRequest.BodyPublisher upsertBody(List<QdrantPoint> points) {
+        return HttpRequest.BodyPublishers.ofInputStream(() -> upsertStream(points));
+    }
+
+    InputStream upsertStream(List<QdrantPoint> points) {
+        return new PointsInputStream(points.iterator());
+    }
+
+    /**
+     * Body for POST /collections/{name}/points/search:
+     * { "vector": [...], "top": topK, "with_payload": true, "with_vectors": false }
+     * With a non-null oversampling, quantized search is asked to rescore with the originals:
+     * "params": { "quantization": { "rescore": true, "oversampling": x } }
+     * A non-empty filter adds a "filter" clause (see writeFilter).
+     */
+    public byte[] searchBody(Vector vector, int topK, Double oversampling, SearchFilter filter) throws IOException {
+        ByteArrayBuilder out = new ByteArrayBuilder();
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            writeSearch(gen, vector, topK, oversampling, filter);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Body for POST /collections/{name}/points/search/batch: { "searches": [ search, ... ] },
+     * each search shaped like {@link #searchBody}.
+     */
+    public byte[] searchBatchBody(List<Vector> vectors, int topK, Double oversampling) throws IOException {
+        ByteArrayBuilder out = new ByteArrayBuilder();
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("searches");
+            for (Vector vector : vectors) {
+                writeSearch(gen, vector, topK, oversampling, SearchFilter.NONE);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeSearch(JsonGenerator gen, Vector vector, int topK, Double oversampling,
+                                    SearchFilter filter) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName("vector");
+        writeVector(gen, vector);
+        gen.writeNumberField("top", topK);
+        if (!filter.isEmpty()) {
+            writeFilter(gen, filter);
+        }
+        gen.writeBooleanField("with_payload", true);
+        gen.writeBooleanField("with_vectors", false);
+        if (oversampling != null) {
+            gen.writeObjectFieldStart("params");
+            gen.writeObjectFieldStart("quantization");
+            gen.writeBooleanField("rescore", true);
+            gen.writeNumberField("oversampling", oversampling);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Body for POST /collections/{name}/points/scroll returning only one payload field:
+     * { "limit": n, "offset": id, "with_payload": { "include": [field] }, "with_vector": false }
+     */
+    public byte[] scrollBody(String payloadField, Long offset, int limit) throws IOException {
+        ByteArrayBuilder out = new ByteArrayBuilder();
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeNumberField("limit", limit);
+            if (offset != null) {
+                gen.writeNumberField("offset", offset);
+            }
+            gen.writeObjectFieldStart("with_payload");
+            gen.writeArrayFieldStart("include");
+            gen.writeString(payloadField);
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeBooleanField("with_vector", false);
+            gen.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Body for POST /collections/{name}/points/delete: { "points": [id, ...] }
+     */
+    public byte[] deleteBody(List<Long> ids) throws IOException {
+        ByteArrayBuilder out = new ByteArrayBuilder();
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("points");
+            for (long id : ids) {
+                gen.writeNumber(id);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Read one scroll page: { "result": { "points": [{ "id", "payload": { field } }], "next_page_offset" } }.
+     * Point ids map to the string value of the payload field (null when the point has none).
+     */
+    public ScrollPage readScrollPage(InputStream body, String payloadField) throws IOException {
+        Map<Long, String> values = new HashMap<>();
+        Long nextOffset = null;
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Qdrant scroll response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"result".equals(field) || value != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String resultField = parser.currentName();
+                    JsonToken resultValue = parser.nextToken();
+                    if ("points".equals(resultField) && resultValue == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            readScrollPoint(parser, payloadField, values);
+                        }
+                    } else if ("next_page_offset".equals(resultField) && resultValue == JsonToken.VALUE_NUMBER_INT) {
+                        nextOffset = parser.getLongValue();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        return new ScrollPage(values, nextOffset);
+    }
+
+    private static void readScrollPoint(JsonParser parser, String payloadField,
+                                        Map<Long, String> values) throws IOException {
+        Long id = null;
+        String fieldValue = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("id".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                id = parser.getLongValue();
+            } else if ("payload".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String payloadKey = parser.currentName();
+                    JsonToken payloadValue = parser.nextToken();
+                    if (payloadField.equals(payloadKey) && payloadValue == JsonToken.VALUE_STRING) {
+                        fieldValue = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        // Points with UUID ids were not written by this application; leave them alone
+        if (id != null) {
+            values.put(id, fieldValue);
+        }
+    }
+
+    /**
+     * Read the "result" array of a search response into hits. Payloads are bound straight
+     * to Maps; every other field is skipped without being materialized.
+     */
+    public List<SearchResult> readSearchResults(InputStream body) throws IOException {
+        List<SearchResult> results = new ArrayList<>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Qdrant search response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("result".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        results.add(readHit(parser));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Read the "result" array of a batch search response: one list of hits per search, in request order.
+     */
+    public List<List<SearchResult>> readSearchBatchResults(InputStream body) throws IOException {
+        List<List<SearchResult>> results = new ArrayList<>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Qdrant search response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("result".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_ARRAY) {
+                        List<SearchResult> hits = new ArrayList<>();
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            hits.add(readHit(parser));
+                        }
+                        results.add(hits);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return results;
+    }
+
+    private SearchResult readHit(JsonParser parser) throws IOException {
+        double score = 0;
+        Map<String, Object> payload = Map.of();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("score".equals(field)) {
+                score = parser.getDoubleValue();
+            } else if ("payload".equals(field) && value == JsonToken.START_OBJECT) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = objectMapper.readValue(parser, Map.class);
+                payload = map;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new SearchResult(score, payload);
+    }
+
+    /**
+     * One page of a scroll: payload field value per point id, and where the next page starts (null at the end).
+     */
+    public record ScrollPage(Map<Long, String> values, Long nextOffset) {
+    }
+
+    /**
+     * "filter": { "must": [ condition, ... ] } where a condition is
+     * { "key": field, "match": { "any": [values] } }, or for conditions that also accept a
+     * missing field: { "should": [ that match, { "is_empty": { "key": field } } ] }.
+     */
+    private static void writeFilter(JsonGenerator gen, SearchFilter filter) throws IOException {
+        gen.writeObjectFieldStart("filter");
+        gen.writeArrayFieldStart("must");
+        for (SearchFilter.Condition condition : filter.conditions()) {
+            if (condition.matchMissing()) {
+                gen.writeStartObject();
+                gen.writeArrayFieldStart("should");
+                writeMatchAny(gen, condition);
+                gen.writeStartObject();
+                gen.writeObjectFieldStart("is_empty");
+                gen.writeStringField("key", condition.field());
+                gen.writeEndObject();
+                gen.writeEndObject();
+                gen.writeEndArray();
+                gen.writeEndObject();
+            } else {
+                writeMatchAny(gen, condition);
+            }
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    private static void writeMatchAny(JsonGenerator gen, SearchFilter.Condition condition) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("key", condition.field());
+        gen.writeObjectFieldStart("match");
+        gen.writeArrayFieldStart("any");
+        for (String value : condition.values()) {
+            gen.writeString(value);
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    private static void writeVector(JsonGenerator gen, Vector vector) throws IOException {
+        float[] values = vector.values();
+        gen.writeStartArray(values, values.length);
+        for (float v : values) {
+            gen.writeNumber(v);
+        }
+        gen.writeEndArray();
+    }
+
+    /**
+     * InputStream that produces the upsert JSON on demand: each refill serializes the next
+     * point into a small reusable buffer, which the HTTP client then drains.
+     */
+    private class PointsInputStream extends InputStream {
+
+        private final Iterator<QdrantPoint> points;
+        private final ByteArrayBuilder buffer = new ByteArrayBuilder();
+        private final JsonGenerator gen;
+
+        private byte[] chunk = new byte[0];
+        private int pos;
+        private boolean finished;
+
+        PointsInputStream(Iterator<QdrantPoint> points) {
+            this.points = points;
+            try {
+                this.gen = objectMapper.getFactory().createGenerator(buffer, JsonEncoding.UTF8);
+                gen.writeStartObject();
+                gen.writeFieldName("points");
+                gen.writeStartArray();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot start Qdrant upsert body", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return chunk[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(chunk, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * Make sure there are unread bytes in chunk; false once the whole body has been read.
+         */
+        private boolean fill() throws IOException {
+            while (pos >= chunk.length) {
+                if (finished) {
+                    return false;
+                }
+                if (points.hasNext()) {
+                    writePoint(points.next());
+                } else {
+                    gen.writeEndArray();
+                    gen.writeEndObject();
+                    gen.close();
+                    finished = true;
+                }
+                gen.flush();
+                chunk = buffer.toByteArray();
+                buffer.reset();
+                pos = 0;
+            }
+            return true;
+        }
+
+        private void writePoint(QdrantPoint p) throws IOException {
+            gen.writeStartObject();
+            // Numeric id – Qdrant requires unsigned integer or UUID for older versions
+            gen.writeNumberField("id", p.getId());
+            gen.writeFieldName("vector");
+            writeVector(gen, p.getVector());
+            // Payload – arbitrary JSON, mapped from our Map<String, Object>
+            gen.writeFieldName("payload");
+            objectMapper.writeValue(gen, p.getPayload());
+            gen.writeEndObject();
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.example.rag.ingest;
 
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -10,10 +9,10 @@ import java.util.Map;
 public class QdrantPoint {
 
     private final long id; // Qdrant requires unsigned integer or UUID
-    private final List<Double> vector;
+    private final Vector vector;
     private final Map<String, Object> payload;
 
-    public QdrantPoint(long id, List<Double> vector, Map<String, Object> payload) {
+    public QdrantPoint(long id, Vector vector, Map<String, Object> payload) {
         this.id = id;
         this.vector = vector;
         this.payload = payload;
@@ -23,7 +22,7 @@ public class QdrantPoint {
         return id;
     }
 
-    public List<Double> getVector() {
+    public Vector getVector() {
         return vector;
     }
 
@@ -1,52 +1,126 @@
 package com.example.rag.ingest;
 
+import com.example.rag.http.HttpTransport;
 //import com.example.rag.model.SkincareDocument;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class QdrantService {
+public class QdrantService implements VectorStore {
 
-    private static final String DEFAULT_HOST = "http://localhost:6333";
+    public static final String DEFAULT_HOST = "http://localhost:6333";
     private static final int VECTOR_SIZE = 1536; // must match the embedding model size
+    private static final int SCROLL_PAGE_SIZE = 1000;
+
+    // Payload fields that searches can filter on
+    private static final List<String> INDEXED_PAYLOAD_FIELDS = List.of("skin_type", "concerns", "type", "age_range");
 
     private final String baseUrl;
-    private final HttpClient httpClient;
+    private final HttpTransport transport;
     private final ObjectMapper objectMapper;
+    private final QdrantJsonCodec codec;
+
+    private final Quantization quantization;
+    private final boolean vectorsOnDisk;
+    private final double oversampling;
 
     public QdrantService() {
         this(DEFAULT_HOST);
     }
 
     public QdrantService(String baseUrl) {
+        this(baseUrl, Quantization.NONE, false, 1.0);
+    }
+
+    /**
+     * @param quantization  quantization requested when the collection is created
+     * @param vectorsOnDisk keep original vectors on disk (only the quantized codes stay in RAM)
+     * @param oversampling  with quantization, candidates fetched per result before rescoring
+     */
+    public QdrantService(String baseUrl, Quantization quantization, boolean vectorsOnDisk, double oversampling) {
+        this(baseUrl, quantization, vectorsOnDisk, oversampling, new HttpTransport());
+    }
+
+    /**
+     * @param transport shared HTTP transport; searches may be hedged, writes only retried
+     */
+    public QdrantService(String baseUrl, Quantization quantization, boolean vectorsOnDisk, double oversampling,
+                         HttpTransport transport) {
         this.baseUrl = baseUrl;
-        this.httpClient = HttpClient.newHttpClient();
+        this.quantization = quantization;
+        this.vectorsOnDisk = vectorsOnDisk;
+        this.oversampling = oversampling;
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
+        this.codec = new QdrantJsonCodec(objectMapper);
     }
 
     /**
-     * Create collection if it does not exist.
+     * Create collection if it does not exist, then make sure the payload indexes are there.
+     * An existing collection keeps its settings, so incremental runs only apply what changed.
      */
+    @Override
     public void ensureCollection(String collectionName) throws Exception {
+        if (!collectionExists(collectionName)) {
+            createCollection(collectionName);
+        }
+
+        for (String field : INDEXED_PAYLOAD_FIELDS) {
+            createKeywordIndex(collectionName, field);
+        }
+    }
+
+    private boolean collectionExists(String collectionName) throws Exception {
+        // GET /collections/{name}: 200 with the collection info, 404 if there is none
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/collections/" + collectionName))
+                .GET()
+                .build();
+
+        HttpResponse<String> response =
+                transport.sendIdempotent(request, HttpResponse.BodyHandlers.ofString(), "qdrant", "get_collection");
+
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        if (response.statusCode() >= 400) {
+            throw new RuntimeException("Failed to get collection: " + response.statusCode()
+                    + " body: " + response.body());
+        }
+        return true;
+    }
+
+    private void createCollection(String collectionName) throws Exception {
         // Qdrant create collection: PUT /collections/{name}
-        // body: { "vectors": { "size": 1536, "distance": "Cosine" } }
+        // body: { "vectors": { "size": 1536, "distance": "Cosine", "on_disk": false },
+        //         "quantization_config": { "scalar": { "type": "int8", ... } } }
 
         ObjectNode vectorsNode = objectMapper.createObjectNode();
         vectorsNode.put("size", VECTOR_SIZE);
         vectorsNode.put("distance", "Cosine");
+        vectorsNode.put("on_disk", vectorsOnDisk);
 
         ObjectNode root = objectMapper.createObjectNode();
         root.set("vectors", vectorsNode);
 
+        // Quantized codes are pinned in RAM; originals are used for rescoring
+        if (quantization == Quantization.INT8) {
+            ObjectNode scalar = root.putObject("quantization_config").putObject("scalar");
+            scalar.put("type", "int8");
+            scalar.put("quantile", 0.99);
+            scalar.put("always_ram", true);
+        } else if (quantization == Quantization.BINARY) {
+            root.putObject("quantization_config").putObject("binary").put("always_ram", true);
+        }
+
         String body = objectMapper.writeValueAsString(root);
 
         HttpRequest request = HttpRequest.newBuilder()
@@ -55,55 +129,54 @@ public class QdrantService {
                 .PUT(HttpRequest.BodyPublishers.ofString(body))
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = transport.send(request, HttpResponse.BodyHandlers.ofString(), "qdrant", "create_collection");
 
-        // Qdrant returns 200 even if collection already exists; we just log errors if any.
-        if (response.statusCode() >= 400) {
+        // Qdrant answers 409 (400 on older versions) if the collection already exists; 409 here means
+        // another ingestion created it since we checked, which is fine
+        if (response.statusCode() >= 400 && response.statusCode() != 409) {
             throw new RuntimeException("Failed to create collection: " + response.statusCode()
                     + " body: " + response.body());
         }
     }
 
     /**
-     * Upsert a batch of documents with their embeddings into Qdrant.
+     * Keyword payload index on one field, so filters on it don't scan every payload.
+     * Creating an index that already exists is a no-op, so this also upgrades old collections.
      */
-    public void upsertBatch(String collectionName, List<QdrantPoint> points) throws Exception {
-        // Build Qdrant "points" array: [{ id, vector, payload }, ...]
-        ArrayNode pointsArray = objectMapper.createArrayNode();
-
-        for (QdrantPoint p : points) {
-            ObjectNode pointNode = objectMapper.createObjectNode();
-
-            // Numeric id – Qdrant requires unsigned integer or UUID for older versions
-            pointNode.put("id", p.getId());
+    private void createKeywordIndex(String collectionName, String field) throws Exception {
+        // PUT /collections/{name}/index  body: { "field_name": field, "field_schema": "keyword" }
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("field_name", field);
+        root.put("field_schema", "keyword");
 
-            // Vector – array of floats/doubles
-            ArrayNode vectorNode = objectMapper.createArrayNode();
-            for (Double v : p.getVector()) {
-                vectorNode.add(v);
-            }
-            pointNode.set("vector", vectorNode);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/collections/" + collectionName + "/index?wait=true"))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(root)))
+                .build();
 
-            // Payload – arbitrary JSON, mapped from our Map<String, Object>
-            JsonNode payloadNode = objectMapper.valueToTree(p.getPayload());
-            pointNode.set("payload", payloadNode);
+        HttpResponse<String> response = transport.send(request, HttpResponse.BodyHandlers.ofString(), "qdrant", "create_index");
 
-            pointsArray.add(pointNode);
+        if (response.statusCode() >= 400) {
+            throw new RuntimeException("Failed to create payload index on " + field + ": "
+                    + response.statusCode() + " body: " + response.body());
         }
+    }
 
-        ObjectNode root = objectMapper.createObjectNode();
-        root.set("points", pointsArray);
-
-        String body = objectMapper.writeValueAsString(root);
-
+    /**
+     * Upsert a batch of documents with their embeddings into Qdrant.
+     * The request body is streamed point by point instead of being built up front.
+     */
+    @Override
+    public void upsertBatch(String collectionName, List<QdrantPoint> points) throws Exception {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(baseUrl + "/collections/" + collectionName + "/points?wait=true"))
                 .header("Content-Type", "application/json")
                 // Qdrant upsert points as PUT with "points" list
-                .PUT(HttpRequest.BodyPublishers.ofString(body))
+                .PUT(codec.upsertBody(points))
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = transport.send(request, HttpResponse.BodyHandlers.ofString(), "qdrant", "upsert");
 
         if (response.statusCode() >= 400) {
             throw new RuntimeException("Failed to upsert points: " + response.statusCode()
@@ -112,59 +185,114 @@ public class QdrantService {
     }
 
     /**
-     * Search the collection by vector and return topK hits with payload.
+     * Read one payload field of every point in the collection, as point id -> value.
+     * Used to find out what is already stored before an incremental ingestion.
      */
-    public List<SearchResult> search(String collectionName, List<Double> vector, int topK) throws Exception {
-        // Build request JSON:
-        // {
-        //   "vector": [...],
-        //   "top": topK,
-        //   "with_payload": true
-        // }
-        ObjectNode root = objectMapper.createObjectNode();
-
-        ArrayNode vectorNode = objectMapper.createArrayNode();
-        for (Double v : vector) {
-            vectorNode.add(v);
-        }
-        root.set("vector", vectorNode);
-        root.put("top", topK);
-        root.put("with_payload", true);
-        root.put("with_vectors", false);
+    @Override
+    public Map<Long, String> fetchPayloadField(String collectionName, String payloadField) throws Exception {
+        Map<Long, String> values = new HashMap<>();
+        Long offset = null;
+        do {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/collections/" + collectionName + "/points/scroll"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(
+                            codec.scrollBody(payloadField, offset, SCROLL_PAGE_SIZE)))
+                    .build();
+
+            HttpResponse<InputStream> response =
+                    transport.send(request, HttpResponse.BodyHandlers.ofInputStream(), "qdrant", "scroll");
+
+            try (InputStream body = response.body()) {
+                if (response.statusCode() == 404 && offset == null) {
+                    // No collection yet, so nothing is stored
+                    return values;
+                }
+                if (response.statusCode() >= 400) {
+                    throw new RuntimeException("Failed to scroll points: " + response.statusCode()
+                            + " body: " + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                }
+                QdrantJsonCodec.ScrollPage page = codec.readScrollPage(body, payloadField);
+                values.putAll(page.values());
+                offset = page.nextOffset();
+            }
+        } while (offset != null);
 
-        String body = objectMapper.writeValueAsString(root);
+        return values;
+    }
 
+    /**
+     * Delete points by id.
+     */
+    @Override
+    public void deletePoints(String collectionName, List<Long> ids) throws Exception {
+        if (ids.isEmpty()) {
+            return;
+        }
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl + "/collections/" + collectionName + "/points/search"))
+                .uri(URI.create(baseUrl + "/collections/" + collectionName + "/points/delete?wait=true"))
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(codec.deleteBody(ids)))
                 .build();
 
-        HttpResponse<String> response =
-                httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = transport.send(request, HttpResponse.BodyHandlers.ofString(), "qdrant", "delete");
 
         if (response.statusCode() >= 400) {
-            throw new RuntimeException("Failed to search points: " + response.statusCode()
+            throw new RuntimeException("Failed to delete points: " + response.statusCode()
                     + " body: " + response.body());
         }
+    }
+
+    /**
+     * Search the collection by vector and return topK hits with payload.
+     * The filter is evaluated by Qdrant, using the payload indexes for the indexed fields.
+     */
+    @Override
+    public List<SearchResult> search(String collectionName, Vector vector, int topK, SearchFilter filter) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/collections/" + collectionName + "/points/search"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(codec.searchBody(vector, topK,
+                        quantization == Quantization.NONE ? null : oversampling, filter)))
+                .build();
 
-        JsonNode rootNode = objectMapper.readTree(response.body());
-        JsonNode resultArray = rootNode.path("result");
-        List<SearchResult> results = new ArrayList<>();
-        for (JsonNode pointNode : resultArray) {
-            double score = pointNode.path("score").asDouble();
-            JsonNode payloadNode = pointNode.path("payload");
+        HttpResponse<InputStream> response =
+                transport.sendIdempotent(request, HttpResponse.BodyHandlers.ofInputStream(), "qdrant", "search");
 
-            @SuppressWarnings("unchecked")
-            Map<String, Object> payload = objectMapper.convertValue(
-                    payloadNode,
-                    Map.class
-            );
+        try (InputStream body = response.body()) {
+            if (response.statusCode() >= 400) {
+                throw new RuntimeException("Failed to search points: " + response.statusCode()
+                        + " body: " + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            return codec.readSearchResults(body);
+        }
+    }
 
-            results.add(new SearchResult(score, payload));
+    /**
+     * Run all searches in one request to /points/search/batch.
+     */
+    @Override
+    public List<List<SearchResult>> searchBatch(String collectionName, List<Vector> vectors, int topK) throws Exception {
+        if (vectors.isEmpty()) {
+            return List.of();
         }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/collections/" + collectionName + "/points/search/batch"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(codec.searchBatchBody(vectors, topK,
+                        quantization == Quantization.NONE ? null : oversampling)))
+                .build();
+
+        HttpResponse<InputStream> response =
+                transport.sendIdempotent(request, HttpResponse.BodyHandlers.ofInputStream(), "qdrant", "search_batch");
 
-        return results;
+        try (InputStream body = response.body()) {
+            if (response.statusCode() >= 400) {
+                throw new RuntimeException("Failed to batch search points: " + response.statusCode()
+                        + " body: " + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            return codec.readSearchBatchResults(body);
+        }
     }
 
 }
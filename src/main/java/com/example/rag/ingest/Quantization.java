@@ -0,0 +1,31 @@
+package com.example.rag.ingest;
+
+/**
+ * How stored vectors are compressed for scoring.
+ * - NONE: full float32 vectors
+ * - INT8: one signed byte per dimension plus a per-vector scale (4x smaller)
+ * - BINARY: one sign bit per dimension (32x smaller)
+ *
+ * Quantized scores are approximate, so searches take `oversampling * topK` candidates
+ * on the codes and rescore them with the original vectors.
+ */
+public enum Quantization {
+    NONE,
+    INT8,
+    BINARY;
+
+    /**
+     * Parse "none" / "int8" / "binary" (case-insensitive); null or blank means NONE.
+     */
+    public static Quantization parse(String name) {
+        if (name == null || name.isBlank()) {
+            return NONE;
+        }
+        for (Quantization q : values()) {
+            if (q.name().equalsIgnoreCase(name.trim())) {
+                return q;
+            }
+        }
+        throw new IllegalArgumentException("Unknown quantization: " + name + " (expected none, int8 or binary)");
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.rag.ingest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Row storage for LocalVectorStore when quantization is on.
+ *
+ * Only the compact codes live on the heap:
+ * - INT8: dimension bytes per row plus a float scale (v[i] ~ scale * code[i])
+ * - BINARY: one sign bit per dimension, packed into longs
+ * The original normalized float32 rows are written to a scratch file and read back only
+ * to rescore the few candidates that survive the quantized scan.
+ *
+ * Not thread-safe on its own; LocalVectorStore guards it with the collection lock.
+ */
+class QuantizedRows {
+
+    private final Quantization quantization;
+    private final int dimension;
+    private final int words; // longs per row for BINARY
+
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[0];
+    private long[] bits = new long[0];
+
+    private final FileChannel originals;
+
+    QuantizedRows(Quantization quantization, int dimension, Path originalsDir) {
+        if (quantization == Quantization.NONE) {
+            throw new IllegalArgumentException("QuantizedRows needs INT8 or BINARY");
+        }
+        this.quantization = quantization;
+        this.dimension = dimension;
+        this.words = (dimension + 63) / 64;
+        try {
+            Files.createDirectories(originalsDir);
+            Path file = Files.createTempFile(originalsDir, "vectors-", ".f32");
+            file.toFile().deleteOnExit();
+            this.originals = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create scratch file for original vectors", e);
+        }
+    }
+
+    void ensureCapacity(int capacity) {
+        if (quantization == Quantization.INT8 && scales.length < capacity) {
+            codes = Arrays.copyOf(codes, capacity * dimension);
+            scales = Arrays.copyOf(scales, capacity);
+        } else if (quantization == Quantization.BINARY && bits.length < capacity * words) {
+            bits = Arrays.copyOf(bits, capacity * words);
+        }
+    }
+
+    /**
+     * Store a normalized vector at a row: quantize it into RAM and write the original to disk.
+     */
+    void set(int row, float[] v) {
+        if (quantization == Quantization.INT8) {
+            scales[row] = quantizeInt8(v, codes, row * dimension);
+        } else {
+            packSigns(v, bits, row * words);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(v);
+        write(buffer, (long) row * dimension * Float.BYTES);
+    }
+
+    /**
+     * Copy row `from` over row `to` (used to fill the hole left by a delete).
+     */
+    void move(int from, int to) {
+        if (quantization == Quantization.INT8) {
+            System.arraycopy(codes, from * dimension, codes, to * dimension, dimension);
+            scales[to] = scales[from];
+        } else {
+            System.arraycopy(bits, from * words, bits, to * words, words);
+        }
+        write(ByteBuffer.wrap(readRaw(from)), (long) to * dimension * Float.BYTES);
+    }
+
+    /**
+     * Precompute the query side of the quantized score.
+     */
+    Query prepare(float[] q) {
+        if (quantization == Quantization.INT8) {
+            byte[] qc = new byte[dimension];
+            float scale = quantizeInt8(q, qc, 0);
+            return new Query(qc, scale, null);
+        }
+        long[] qb = new long[words];
+        packSigns(q, qb, 0);
+        return new Query(null, 0, qb);
+    }
+
+    /**
+     * Approximate similarity of a row to the query; only the ordering matters.
+     */
+    float approxScore(int row, Query query) {
+        if (quantization == Quantization.INT8) {
+            byte[] qc = query.codes;
+            int base = row * dimension;
+            int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            int i = 0;
+            for (; i + 3 < dimension; i += 4) {
+                s0 += codes[base + i] * qc[i];
+                s1 += codes[base + i + 1] * qc[i + 1];
+                s2 += codes[base + i + 2] * qc[i + 2];
+                s3 += codes[base + i + 3] * qc[i + 3];
+            }
+            for (; i < dimension; i++) {
+                s0 += codes[base + i] * qc[i];
+            }
+            return query.scale * scales[row] * ((s0 + s1) + (s2 + s3));
+        }
+        int base = row * words;
+        int hamming = 0;
+        for (int w = 0; w < words; w++) {
+            hamming += Long.bitCount(bits[base + w] ^ query.bits[w]);
+        }
+        return -hamming;
+    }
+
+    /**
+     * Original normalized vector of a row, read from the scratch file.
+     */
+    float[] original(int row) {
+        float[] v = new float[dimension];
+        ByteBuffer.wrap(readRaw(row)).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(v);
+        return v;
+    }
+
+    /**
+     * Bytes of quantized codes currently held in RAM per row.
+     */
+    int bytesPerRow() {
+        return quantization == Quantization.INT8 ? dimension + Float.BYTES : words * Long.BYTES;
+    }
+
+    private byte[] readRaw(int row) {
+        ByteBuffer buffer = ByteBuffer.allocate(dimension * Float.BYTES);
+        long position = (long) row * dimension * Float.BYTES;
+        try {
+            while (buffer.hasRemaining()) {
+                int n = originals.read(buffer, position + buffer.position());
+                if (n < 0) {
+                    throw new IOException("Unexpected end of original vectors file at row " + row);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.array();
+    }
+
+    private void write(ByteBuffer buffer, long position) {
+        try {
+            while (buffer.hasRemaining()) {
+                originals.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Symmetric int8 quantization with a per-vector scale: code = round(v / scale),
+     * scale = max|v| / 127. Returns the scale.
+     */
+    private static float quantizeInt8(float[] v, byte[] out, int offset) {
+        float maxAbs = 0;
+        for (float x : v) {
+            maxAbs = Math.max(maxAbs, Math.abs(x));
+        }
+        if (maxAbs == 0) {
+            Arrays.fill(out, offset, offset + v.length, (byte) 0);
+            return 0;
+        }
+        float scale = maxAbs / 127f;
+        float inv = 1f / scale;
+        for (int i = 0; i < v.length; i++) {
+            out[offset + i] = (byte) Math.round(v[i] * inv);
+        }
+        return scale;
+    }
+
+    private static void packSigns(float[] v, long[] out, int offset) {
+        int words = (v.length + 63) / 64;
+        Arrays.fill(out, offset, offset + words, 0L);
+        for (int i = 0; i < v.length; i++) {
+            if (v[i] > 0) {
+                out[offset + (i >>> 6)] |= 1L << (i & 63);
+            }
+        }
+    }
+
+    record Query(byte[] codes, float scale, long[] bits) {
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.rag.ingest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Payload constraints for a vector search. Every condition must hold (AND); a condition
+ * holds if the payload field has any of the listed values (for list fields: contains any).
+ *
+ * A condition created with {@link #anyOfOrMissing} also holds for points that don't have
+ * the field at all: general documents such as rules have no skin_type, and filtering on
+ * skin type should not drop them.
+ *
+ * Immutable; each method returns a new filter.
+ */
+public final class SearchFilter {
+
+    public static final SearchFilter NONE = new SearchFilter(List.of());
+
+    private final List<Condition> conditions;
+
+    private SearchFilter(List<Condition> conditions) {
+        this.conditions = conditions;
+    }
+
+    /**
+     * Field must have one of the values. An empty or null list adds no constraint.
+     */
+    public SearchFilter anyOf(String field, Collection<String> values) {
+        return with(field, values, false);
+    }
+
+    /**
+     * Field must have one of the values, or be missing/empty. An empty or null list adds no constraint.
+     */
+    public SearchFilter anyOfOrMissing(String field, Collection<String> values) {
+        return with(field, values, true);
+    }
+
+    private SearchFilter with(String field, Collection<String> values, boolean matchMissing) {
+        if (values == null || values.isEmpty()) {
+            return this;
+        }
+        List<Condition> extended = new ArrayList<>(conditions);
+        extended.add(new Condition(field, List.copyOf(values), matchMissing));
+        return new SearchFilter(List.copyOf(extended));
+    }
+
+    public boolean isEmpty() {
+        return conditions.isEmpty();
+    }
+
+    public List<Condition> conditions() {
+        return conditions;
+    }
+
+    /**
+     * Evaluate the filter against a payload, for stores that filter in process.
+     */
+    public boolean matches(Map<String, Object> payload) {
+        for (Condition condition : conditions) {
+            if (!condition.matches(payload.get(condition.field()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return conditions.stream()
+                .map(c -> c.field() + (c.matchMissing() ? "?" : "") + "=" + c.values())
+                .collect(Collectors.joining(" AND "));
+    }
+
+    public record Condition(String field, List<String> values, boolean matchMissing) {
+
+        boolean matches(Object value) {
+            if (value == null || (value instanceof Collection<?> list && list.isEmpty())) {
+                return matchMissing;
+            }
+            if (value instanceof Collection<?> list) {
+                for (Object element : list) {
+                    if (element != null && values.contains(element.toString())) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return values.contains(value.toString());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.rag.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedder that reuses vectors from an EmbeddingStore and only asks the delegate
+ * (normally the OpenAI client) for texts the store has not seen. New vectors are
+ * written back, so the next ingestion run gets them for free.
+ */
+public class StoredEmbedder implements Embedder {
+
+    private final Embedder delegate;
+    private final EmbeddingStore store;
+
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong embedded = new AtomicLong();
+
+    public StoredEmbedder(Embedder delegate, EmbeddingStore store) {
+        this.delegate = delegate;
+        this.store = store;
+    }
+
+    @Override
+    public Vector embed(String text) throws Exception {
+        return embedBatch(List.of(text)).get(0);
+    }
+
+    @Override
+    public List<Vector> embedBatch(List<String> texts) throws Exception {
+        List<Vector> vectors = new ArrayList<>(texts.size());
+        List<Integer> missingPositions = new ArrayList<>();
+        List<String> missingTexts = new ArrayList<>();
+
+        for (int i = 0; i < texts.size(); i++) {
+            Vector stored = store.get(texts.get(i));
+            vectors.add(stored);
+            if (stored == null) {
+                missingPositions.add(i);
+                missingTexts.add(texts.get(i));
+            }
+        }
+        reused.addAndGet(texts.size() - missingTexts.size());
+
+        if (!missingTexts.isEmpty()) {
+            List<Vector> fresh = delegate.embedBatch(missingTexts);
+            for (int j = 0; j < fresh.size(); j++) {
+                vectors.set(missingPositions.get(j), fresh.get(j));
+                store.put(missingTexts.get(j), fresh.get(j));
+            }
+            embedded.addAndGet(fresh.size());
+        }
+        return vectors;
+    }
+
+    public long getReused() {
+        return reused.get();
+    }
+
+    public long getEmbedded() {
+        return embedded.get();
+    }
+}
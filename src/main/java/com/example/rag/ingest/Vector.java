@@ -0,0 +1,90 @@
+package com.example.rag.ingest;
+
+import java.util.Arrays;
+
+/**
+ * Immutable embedding vector backed by a primitive float[].
+ * A 1536-dim vector takes ~6 KB in one object instead of 1536 boxed Doubles.
+ */
+public final class Vector {
+
+    private final float[] values;
+
+    private Vector(float[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Create a vector from a copy of the given values.
+     */
+    public static Vector of(float[] values) {
+        return new Vector(values.clone());
+    }
+
+    /**
+     * Take ownership of an array that nobody else holds a reference to (no copy).
+     */
+    static Vector wrap(float[] values) {
+        return new Vector(values);
+    }
+
+    public int dimension() {
+        return values.length;
+    }
+
+    public float get(int i) {
+        return values[i];
+    }
+
+    /**
+     * Copy of the values; callers may modify it freely.
+     */
+    public float[] toArray() {
+        return values.clone();
+    }
+
+    /**
+     * Copy the values into dst starting at offset, e.g. into a contiguous matrix.
+     */
+    public void copyInto(float[] dst, int offset) {
+        System.arraycopy(values, 0, dst, offset, values.length);
+    }
+
+    public double dot(Vector other) {
+        if (other.values.length != values.length) {
+            throw new IllegalArgumentException("Vector dimensions differ: " + values.length
+                    + " vs " + other.values.length);
+        }
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += values[i] * other.values[i];
+        }
+        return sum;
+    }
+
+    public double norm() {
+        return Math.sqrt(dot(this));
+    }
+
+    /**
+     * Raw values for serialization inside this package; must not be modified.
+     */
+    float[] values() {
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Vector other && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return "Vector{dimension=" + values.length + '}';
+    }
+}
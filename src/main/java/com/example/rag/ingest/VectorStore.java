@@ -0,0 +1,56 @@
+package com.example.rag.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage and similarity search for document vectors.
+ * Implemented by the Qdrant HTTP client and by in-process stores for small deployments.
+ */
+public interface VectorStore {
+
+    /**
+     * Create collection if it does not exist.
+     */
+    void ensureCollection(String collectionName) throws Exception;
+
+    /**
+     * Insert points, replacing any existing point with the same id.
+     */
+    void upsertBatch(String collectionName, List<QdrantPoint> points) throws Exception;
+
+    /**
+     * Read one payload field of every point in the collection, as point id -> value.
+     */
+    Map<Long, String> fetchPayloadField(String collectionName, String payloadField) throws Exception;
+
+    /**
+     * Delete points by id.
+     */
+    void deletePoints(String collectionName, List<Long> ids) throws Exception;
+
+    /**
+     * Return the topK points most similar (cosine) to the vector, best first, with payload.
+     */
+    default List<SearchResult> search(String collectionName, Vector vector, int topK) throws Exception {
+        return search(collectionName, vector, topK, SearchFilter.NONE);
+    }
+
+    /**
+     * Like {@link #search(String, Vector, int)}, but only among points whose payload matches the filter.
+     */
+    List<SearchResult> search(String collectionName, Vector vector, int topK, SearchFilter filter) throws Exception;
+
+    /**
+     * Search for several vectors at once; result i belongs to vectors.get(i).
+     * Stores with a per-call cost (network round trip) should override this.
+     */
+    default List<List<SearchResult>> searchBatch(String collectionName, List<Vector> vectors, int topK) throws Exception {
+        List<List<SearchResult>> results = new ArrayList<>(vectors.size());
+        for (Vector vector : vectors) {
+            results.add(search(collectionName, vector, topK));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.rag.llm;
+
+import com.example.rag.ingest.SearchResult;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the chat prompt for a question and its retrieved hits, within a token budget.
+ *
+ * Tokens are counted locally with the o200k_base tokenizer used by the gpt-4.1 models.
+ * Hits are taken best first; a passage that is nearly identical to one already taken is
+ * skipped, and once the budget runs out the passage that doesn't fit is trimmed (if a useful
+ * part of it still fits) and the remaining, lower-scored hits are dropped.
+ *
+ * The system prompt is a constant and goes first, so every request starts with the same
+ * prefix and the provider's prompt caching can reuse it.
+ */
+public class ContextAssembler {
+
+    public static final String SYSTEM_PROMPT = """
+            You are a skincare assistant specializing in Korean multi-step routines.
+            Answer in English in a clear and practical way.
+            Use ONLY the provided context about products, ingredients, routines and rules.
+            If the information is missing, say that it is not present in the dataset.
+            """;
+
+    private static final String PASSAGE_SEPARATOR = "\n---------------------\n";
+
+    // Trimming a passage to fewer tokens than this leaves nothing worth sending
+    private static final int MIN_TRIMMED_TOKENS = 48;
+    // Word 3-gram overlap (Jaccard) above which two passages count as the same
+    private static final double DUPLICATE_SIMILARITY = 0.9;
+    // Tokens the chat format adds per message (role markers)
+    private static final int TOKENS_PER_MESSAGE = 4;
+
+    private static final Encoding ENCODING = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.O200K_BASE);
+
+    private final int tokenBudget;
+
+    /**
+     * @param tokenBudget maximum prompt size (system and user message) in tokens
+     */
+    public ContextAssembler(int tokenBudget) {
+        this.tokenBudget = tokenBudget;
+    }
+
+    public Prompt assemble(String question, List<SearchResult> hits) {
+        String header = "User question:\n" + question + "\n\nRelevant context from knowledge base:\n";
+        int used = countTokens(SYSTEM_PROMPT) + countTokens(header) + 2 * TOKENS_PER_MESSAGE;
+
+        StringBuilder context = new StringBuilder();
+        List<SearchResult> included = new ArrayList<>();
+        List<Set<String>> includedShingles = new ArrayList<>();
+        int duplicates = 0;
+        int trimmed = 0;
+
+        for (SearchResult hit : hits) {
+            Set<String> shingles = shingles(String.valueOf(hit.getPayload().get("text")));
+            if (isDuplicate(shingles, includedShingles)) {
+                duplicates++;
+                continue;
+            }
+
+            String passage = (included.isEmpty() ? "" : PASSAGE_SEPARATOR) + formatPassage(hit.getPayload());
+            int tokens = countTokens(passage);
+            if (used + tokens > tokenBudget) {
+                int room = tokenBudget - used;
+                if (room >= MIN_TRIMMED_TOKENS) {
+                    EncodingResult prefix = ENCODING.encode(passage, room);
+                    context.append(ENCODING.decode(prefix.getTokens())).append(" [...]\n");
+                    used += prefix.getTokens().size();
+                    included.add(hit);
+                    trimmed++;
+                }
+                break;
+            }
+            context.append(passage);
+            used += tokens;
+            included.add(hit);
+            includedShingles.add(shingles);
+        }
+
+        int dropped = hits.size() - included.size() - duplicates;
+        return new Prompt(SYSTEM_PROMPT, header + context, included, used, duplicates, trimmed, dropped);
+    }
+
+    public static int countTokens(String text) {
+        return ENCODING.countTokensOrdinary(text);
+    }
+
+    /**
+     * One hit as a context block; missing fields are left out.
+     */
+    private static String formatPassage(Map<String, Object> p) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Document: ").append(p.get("doc_id")).append("\n");
+        sb.append("Type: ").append(p.get("type")).append("\n");
+        appendIfPresent(sb, "Title", p.get("title"));
+        appendIfPresent(sb, "Skin type", p.get("skin_type"));
+        appendIfPresent(sb, "Concerns", p.get("concerns"));
+        appendIfPresent(sb, "Age range", p.get("age_range"));
+        sb.append("Text: ").append(p.get("text")).append("\n");
+        return sb.toString();
+    }
+
+    private static void appendIfPresent(StringBuilder sb, String label, Object value) {
+        if (value != null) {
+            sb.append(label).append(": ").append(value).append("\n");
+        }
+    }
+
+    private static boolean isDuplicate(Set<String> shingles, List<Set<String>> included) {
+        if (shingles.isEmpty()) {
+            return false;
+        }
+        for (Set<String> other : included) {
+            int common = 0;
+            for (String s : shingles) {
+                if (other.contains(s)) {
+                    common++;
+                }
+            }
+            int union = shingles.size() + other.size() - common;
+            if ((double) common / union >= DUPLICATE_SIMILARITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> shingles(String text) {
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        Set<String> shingles = new HashSet<>();
+        for (int i = 0; i + 2 < words.length; i++) {
+            shingles.add(words[i] + " " + words[i + 1] + " " + words[i + 2]);
+        }
+        return shingles;
+    }
+
+    /**
+     * The messages to send and what went into them: the hits actually used (best first),
+     * the prompt size in tokens, and how many hits were skipped as duplicates, trimmed to
+     * fit, or dropped for lack of budget.
+     */
+    public record Prompt(String systemPrompt,
+                         String userPrompt,
+                         List<SearchResult> usedHits,
+                         int promptTokens,
+                         int duplicateHits,
+                         int trimmedHits,
+                         int droppedHits) {
+    }
+}
@@ -1,30 +1,53 @@
 package com.example.rag.llm;
 
+import com.example.rag.http.HttpTransport;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Simple OpenAI Chat Completions client for RAG answers.
  */
 public class LlmClient {
 
-    private static final String CHAT_URL = "https://api.openai.com/v1/chat/completions";
+    public static final String DEFAULT_BASE_URL = "https://api.openai.com/v1";
     private static final String MODEL = "gpt-4.1-mini";
 
     private final String apiKey;
-    private final HttpClient httpClient;
+    private final String chatUrl;
+    private final HttpTransport transport;
     private final ObjectMapper objectMapper;
 
     public LlmClient(String apiKey) {
+        this(apiKey, DEFAULT_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl OpenAI-compatible API root, e.g. https://api.openai.com/v1 or a local stub
+     */
+    public LlmClient(String apiKey, String baseUrl) {
+        this(apiKey, baseUrl, new HttpTransport());
+    }
+
+    /**
+     * @param transport shared HTTP transport; chat calls are neither hedged nor retried after a
+     *                  timeout, since a duplicate completion costs tokens. Give it a request
+     *                  timeout long enough for a full answer (for streams it only bounds the
+     *                  wait for the first byte).
+     */
+    public LlmClient(String apiKey, String baseUrl, HttpTransport transport) {
         this.apiKey = apiKey;
-        this.httpClient = HttpClient.newHttpClient();
+        this.chatUrl = baseUrl + "/chat/completions";
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
     }
 
@@ -32,8 +55,88 @@ public class LlmClient {
      * Ask the LLM a question with given context (already concatenated into a prompt).
      */
     public String askWithContext(String systemPrompt, String userPrompt) throws Exception {
+        return chat(systemPrompt, userPrompt).text();
+    }
+
+    /**
+     * Same as {@link #askWithContext}, with the token usage reported by the API.
+     */
+    public Completion chat(String systemPrompt, String userPrompt) throws Exception {
+        HttpRequest request = chatRequest(systemPrompt, userPrompt, false);
+
+        HttpResponse<String> response =
+                transport.send(request, HttpResponse.BodyHandlers.ofString(), "llm", "chat");
+
+        if (response.statusCode() >= 400) {
+            throw new RuntimeException("OpenAI chat API error: " + response.statusCode()
+                    + " body: " + response.body());
+        }
+
+        JsonNode rootNode = objectMapper.readTree(response.body());
+        JsonNode contentNode = rootNode
+                .path("choices")
+                .get(0)
+                .path("message")
+                .path("content");
+        JsonNode usage = rootNode.path("usage");
+
+        return new Completion(contentNode.asText(),
+                usage.has("prompt_tokens") ? usage.get("prompt_tokens").asInt() : null,
+                usage.has("completion_tokens") ? usage.get("completion_tokens").asInt() : null);
+    }
+
+    /**
+     * Same as {@link #askWithContext}, but with {@code stream: true}: each content delta is
+     * handed to {@code onToken} as soon as its server-sent event arrives.
+     *
+     * @return the full answer, i.e. all deltas concatenated
+     */
+    public String streamWithContext(String systemPrompt,
+                                    String userPrompt,
+                                    Consumer<String> onToken) throws Exception {
+        HttpRequest request = chatRequest(systemPrompt, userPrompt, true);
+
+        HttpResponse<Stream<String>> response =
+                transport.send(request, HttpResponse.BodyHandlers.ofLines(), "llm", "chat_stream");
+
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() >= 400) {
+                throw new RuntimeException("OpenAI chat API error: " + response.statusCode()
+                        + " body: " + lines.collect(Collectors.joining("\n")));
+            }
+
+            StringBuilder answer = new StringBuilder();
+            Iterator<String> it = lines.iterator();
+            while (it.hasNext()) {
+                String line = it.next();
+                // Events are "data: {json}" lines separated by blank lines; the stream ends with [DONE]
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring("data:".length()).trim();
+                if (data.equals("[DONE]")) {
+                    break;
+                }
+                JsonNode delta = objectMapper.readTree(data)
+                        .path("choices")
+                        .path(0)
+                        .path("delta")
+                        .path("content");
+                if (delta.isTextual() && !delta.asText().isEmpty()) {
+                    answer.append(delta.asText());
+                    onToken.accept(delta.asText());
+                }
+            }
+            return answer.toString();
+        }
+    }
+
+    private HttpRequest chatRequest(String systemPrompt, String userPrompt, boolean stream) throws Exception {
         ObjectNode root = objectMapper.createObjectNode();
         root.put("model", MODEL);
+        if (stream) {
+            root.put("stream", true);
+        }
 
         ArrayNode messages = objectMapper.createArrayNode();
 
@@ -52,29 +155,17 @@ public class LlmClient {
         root.set("messages", messages);
 
         String body = objectMapper.writeValueAsString(root);
-        System.out.println(body);
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(CHAT_URL))
+        return HttpRequest.newBuilder()
+                .uri(URI.create(chatUrl))
                 .header("Authorization", "Bearer " + apiKey)
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(body))
                 .build();
+    }
 
-        HttpResponse<String> response =
-                httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-        if (response.statusCode() >= 400) {
-            throw new RuntimeException("OpenAI chat API error: " + response.statusCode()
-                    + " body: " + response.body());
-        }
-
-        JsonNode rootNode = objectMapper.readTree(response.body());
-        JsonNode contentNode = rootNode
-                .path("choices")
-                .get(0)
-                .path("message")
-                .path("content");
-
-        return contentNode.asText();
+    /**
+     * An answer and its token usage (null if the API didn't report it).
+     */
+    public record Completion(String text, Integer promptTokens, Integer completionTokens) {
     }
 }
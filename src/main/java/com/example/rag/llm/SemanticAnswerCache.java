@@ -0,0 +1,241 @@
+package com.example.rag.llm;
+
+import com.example.rag.ingest.SearchResult;
+import com.example.rag.ingest.Vector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Cache of final answers keyed by question-embedding similarity.
+ *
+ * A new question reuses a cached answer when its vector is at least `threshold` cosine-similar
+ * to a cached question and the documents the cached answer was built from are still current:
+ * every cited doc_id must be among the new search hits with the same content_hash.
+ * A document re-ingested with different text (by this process or by the ingestion runner)
+ * therefore invalidates every answer that cited it the next time it is looked up. This is
+ * the only invalidation needed: in-process stores are ingested at startup, before anything
+ * is cached.
+ *
+ * Entries are scanned linearly, so the cache is bounded by entry count (LRU eviction).
+ * Every question does a scan, so lookups run lock-free over an immutable snapshot of the
+ * entries; writes (put, eviction, invalidation) copy the snapshot under a lock and publish
+ * the new one.
+ */
+public class SemanticAnswerCache {
+
+    private final double threshold;
+    private final int maxEntries;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Never modified once published; replaced as a whole under writeLock
+    private volatile List<Entry> entries = List.of();
+    // Logical clock for LRU: an entry's lastUsed is the tick of its latest put or hit
+    private final AtomicLong clock = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SemanticAnswerCache(double threshold, int maxEntries) {
+        this.threshold = threshold;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Cached answer for a question similar to this one whose cited documents match the
+     * current hits, or null.
+     */
+    public String lookup(Vector questionVector, List<SearchResult> currentHits) {
+        Map<String, Object> currentHashes = citedHashes(currentHits);
+        float[] q = unit(questionVector);
+
+        Entry best = null;
+        double bestSim = threshold;
+        List<Entry> stale = null;
+        for (Entry entry : entries) {
+            Freshness freshness = freshness(entry, currentHashes);
+            if (freshness == Freshness.CHANGED) {
+                if (stale == null) {
+                    stale = new ArrayList<>();
+                }
+                stale.add(entry);
+                continue;
+            }
+            if (freshness == Freshness.NOT_RETRIEVED) {
+                continue;
+            }
+            double sim = dot(q, entry.question);
+            if (sim >= bestSim) {
+                bestSim = sim;
+                best = entry;
+            }
+        }
+        if (stale != null) {
+            Set<Entry> remove = Collections.newSetFromMap(new IdentityHashMap<>());
+            remove.addAll(stale);
+            removeIf(remove::contains);
+        }
+
+        if (best == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        best.lastUsed = clock.incrementAndGet();
+        return best.answer;
+    }
+
+    /**
+     * Remember the answer built from these hits.
+     */
+    public void put(Vector questionVector, List<SearchResult> hits, String answer) {
+        Entry added = new Entry(unit(questionVector), citedHashes(hits), answer, clock.incrementAndGet());
+        writeLock.lock();
+        try {
+            List<Entry> next = new ArrayList<>(entries.size() + 1);
+            next.addAll(entries);
+            next.add(added);
+            while (next.size() > maxEntries) {
+                next.remove(leastRecentlyUsed(next));
+                evictions.incrementAndGet();
+            }
+            entries = next;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Publish a snapshot without the matching entries, counting them as invalidations.
+     * Entries another thread already removed are not counted twice.
+     */
+    private void removeIf(Predicate<Entry> condition) {
+        writeLock.lock();
+        try {
+            List<Entry> next = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                if (condition.test(entry)) {
+                    invalidations.incrementAndGet();
+                } else {
+                    next.add(entry);
+                }
+            }
+            if (next.size() < entries.size()) {
+                entries = next;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static int leastRecentlyUsed(List<Entry> list) {
+        int lru = 0;
+        for (int i = 1; i < list.size(); i++) {
+            if (list.get(i).lastUsed < list.get(lru).lastUsed) {
+                lru = i;
+            }
+        }
+        return lru;
+    }
+
+    /**
+     * CURRENT if each cited document is in the hits with the same content hash;
+     * CHANGED if a cited document is in the hits with a different hash (the entry is stale);
+     * NOT_RETRIEVED if a cited document is missing from the hits, so freshness can't be checked.
+     */
+    private static Freshness freshness(Entry entry, Map<String, Object> currentHashes) {
+        Freshness result = Freshness.CURRENT;
+        for (Map.Entry<String, Object> cited : entry.cited.entrySet()) {
+            if (!currentHashes.containsKey(cited.getKey())) {
+                result = Freshness.NOT_RETRIEVED;
+            } else if (!Objects.equals(currentHashes.get(cited.getKey()), cited.getValue())) {
+                return Freshness.CHANGED;
+            }
+        }
+        return result;
+    }
+
+    private enum Freshness {
+        CURRENT,
+        NOT_RETRIEVED,
+        CHANGED
+    }
+
+    private static Map<String, Object> citedHashes(List<SearchResult> hits) {
+        Map<String, Object> hashes = new HashMap<>();
+        for (SearchResult hit : hits) {
+            Object docId = hit.getPayload().get("doc_id");
+            if (docId != null) {
+                hashes.put(docId.toString(), hit.getPayload().get("content_hash"));
+            }
+        }
+        return hashes;
+    }
+
+    private static float[] unit(Vector v) {
+        float[] values = v.toArray();
+        double norm = v.norm();
+        if (norm > 0) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] /= (float) norm;
+            }
+        }
+        return values;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static final class Entry {
+        final float[] question;
+        final Map<String, Object> cited;
+        final String answer;
+        volatile long lastUsed;
+
+        Entry(float[] question, Map<String, Object> cited, String answer, long lastUsed) {
+            this.question = question;
+            this.cited = cited;
+            this.answer = answer;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
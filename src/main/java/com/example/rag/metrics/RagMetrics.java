@@ -0,0 +1,185 @@
+package com.example.rag.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Meters for the RAG pipeline, registered in Micrometer's global registry.
+ *
+ * Clients are also created outside Spring (ingestion runner, CLI), so they can't take the
+ * registry as a bean; Spring Boot adds its Prometheus registry to the global one, so the
+ * same meters show up on /actuator/prometheus when running as a web app and cost nothing
+ * elsewhere.
+ *
+ * Meters:
+ * - rag.client.requests (timer; client, operation, status): outbound HTTP attempts, until the
+ *   response body is read for buffered bodies or the headers arrive for streamed ones
+ * - rag.client.errors (counter; client, operation, status): HTTP >= 400, or "io" for failed calls
+ * - rag.client.retries (counter; client, operation, reason), rag.client.hedges (counter; client,
+ *   operation, winner): see HttpTransport
+ * - rag.client.payload (summary, bytes; client, operation, direction): request and response sizes
+ * - rag.ask.stage (timer; stage): steps of answering a question
+ * - rag.cache.requests (counter; cache, result), rag.cache.evictions, rag.cache.size: caches
+ */
+public final class RagMetrics {
+
+    private static final MeterRegistry REGISTRY = Metrics.globalRegistry;
+
+    private RagMetrics() {
+    }
+
+    /**
+     * Record the size of a request body about to be sent (once per attempt).
+     */
+    public static void recordSent(String client, String operation, HttpRequest request) {
+        request.bodyPublisher().ifPresent(body -> {
+            if (body.contentLength() >= 0) {
+                recordBytes(client, operation, "sent", body.contentLength());
+            }
+        });
+    }
+
+    /**
+     * Record one answered call: latency by status, errors for status >= 400, response size.
+     */
+    public static void recordResponse(String client, String operation, HttpResponse<?> response, long nanos) {
+        String status = Integer.toString(response.statusCode());
+        recordCall(client, operation, status, nanos);
+        if (response.statusCode() >= 400) {
+            errorCounter(client, operation, status).increment();
+        }
+
+        // Streamed bodies haven't been read yet, so fall back to the declared length
+        Object body = response.body();
+        long received = switch (body) {
+            case byte[] bytes -> bytes.length;
+            case String text -> text.getBytes(StandardCharsets.UTF_8).length;
+            case null, default -> response.headers().firstValueAsLong("content-length").orElse(-1);
+        };
+        if (received >= 0) {
+            recordBytes(client, operation, "received", received);
+        }
+    }
+
+    /**
+     * Record a call that failed without a response (connection error, timeout).
+     */
+    public static void recordFailure(String client, String operation, long nanos) {
+        recordCall(client, operation, "io", nanos);
+        errorCounter(client, operation, "io").increment();
+    }
+
+    /**
+     * Record that a call is being retried; reason is the status code or "io".
+     */
+    public static void recordRetry(String client, String operation, String reason) {
+        Counter.builder("rag.client.retries")
+                .tag("client", client)
+                .tag("operation", operation)
+                .tag("reason", reason)
+                .register(REGISTRY)
+                .increment();
+    }
+
+    /**
+     * Record a hedged call; winner is "primary" or "hedge".
+     */
+    public static void recordHedge(String client, String operation, String winner) {
+        Counter.builder("rag.client.hedges")
+                .tag("client", client)
+                .tag("operation", operation)
+                .tag("winner", winner)
+                .register(REGISTRY)
+                .increment();
+    }
+
+    /**
+     * Run one stage of answering a question and record how long it took (also when it fails).
+     */
+    public static <T> T timeStage(String stage, Callable<T> work) throws Exception {
+        return stageTimer(stage).recordCallable(work);
+    }
+
+    /**
+     * Hit/miss counters of a cache, read from the cache's own counters; the hit ratio is
+     * hits / (hits + misses) over any window. Evictions count entries the cache
+     * dropped for any reason (size limit, expiry, invalidation).
+     */
+    public static <C> void registerCache(String cache, C source,
+                                         ToDoubleFunction<C> hits,
+                                         ToDoubleFunction<C> misses,
+                                         ToDoubleFunction<C> evictions,
+                                         ToDoubleFunction<C> size) {
+        FunctionCounter.builder("rag.cache.requests", source, hits)
+                .tag("cache", cache).tag("result", "hit")
+                .register(REGISTRY);
+        FunctionCounter.builder("rag.cache.requests", source, misses)
+                .tag("cache", cache).tag("result", "miss")
+                .register(REGISTRY);
+        FunctionCounter.builder("rag.cache.evictions", source, evictions)
+                .tag("cache", cache)
+                .register(REGISTRY);
+        Gauge.builder("rag.cache.size", source, size)
+                .tag("cache", cache)
+                .register(REGISTRY);
+    }
+
+    /**
+     * A monotonically increasing count kept by some component, exposed as a counter.
+     */
+    public static <C> void registerCount(String name, String description, C source, ToDoubleFunction<C> count) {
+        FunctionCounter.builder(name, source, count)
+                .description(description)
+                .register(REGISTRY);
+    }
+
+    private static void recordCall(String client, String operation, String status, long nanos) {
+        Timer.builder("rag.client.requests")
+                .tag("client", client)
+                .tag("operation", operation)
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(REGISTRY)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static Counter errorCounter(String client, String operation, String status) {
+        return Counter.builder("rag.client.errors")
+                .tag("client", client)
+                .tag("operation", operation)
+                .tag("status", status)
+                .register(REGISTRY);
+    }
+
+    private static void recordBytes(String client, String operation, String direction, long bytes) {
+        DistributionSummary.builder("rag.client.payload")
+                .baseUnit("bytes")
+                .tag("client", client)
+                .tag("operation", operation)
+                .tag("direction", direction)
+                .register(REGISTRY)
+                .record(bytes);
+    }
+
+    /**
+     * Timer of one stage, for work that can't go through {@link #timeStage} (no checked exceptions).
+     */
+    public static Timer stageTimer(String stage) {
+        return Timer.builder("rag.ask.stage")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(REGISTRY);
+    }
+}
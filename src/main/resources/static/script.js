@@ -36,7 +36,7 @@ async function ask() {
     showTyping();
 
     try {
-        const response = await fetch("/api/ask", {
+        const response = await fetch("/api/ask/stream", {
             method: "POST",
             headers: {"Content-Type": "application/json"},
             body: JSON.stringify({ question })
@@ -49,19 +49,68 @@ async function ask() {
             return;
         }
 
-        const data = await response.json();
+        // 3. ответ приходит по частям (server-sent events) — дописываем его в одно сообщение
+        let answer = "";
+        let div = null;
 
-        // 3. убираем индикатор, когда ответ пришёл
-        hideTyping();
+        await readEvents(response, (event, data) => {
+            if (event === "token") {
+                if (!div) {
+                    hideTyping();
+                    div = appendMessage("AI: ", "assistant");
+                }
+                answer += JSON.parse(data).text;
+                renderAssistant(div, "AI: " + answer);
+            } else if (event === "error") {
+                hideTyping();
+                appendMessage("AI: Error: " + JSON.parse(data).message, "assistant");
+            }
+        });
 
-        const answer = data.answer ?? JSON.stringify(data, null, 2);
-        appendMessage("AI: " + answer, "assistant");
+        hideTyping();
     } catch (e) {
         hideTyping();
         appendMessage("AI: Error: " + e, "assistant");
     }
 }
 
+// Разбираем поток text/event-stream: события разделены пустой строкой,
+// поля "event:" и "data:" (EventSource не умеет POST, поэтому вручную)
+async function readEvents(response, onEvent) {
+    const reader = response.body.getReader();
+    const decoder = new TextDecoder();
+    let buffer = "";
+
+    while (true) {
+        const { value, done } = await reader.read();
+        if (done) break;
+        buffer += decoder.decode(value, { stream: true });
+
+        let boundary;
+        while ((boundary = buffer.search(/\r?\n\r?\n/)) !== -1) {
+            const raw = buffer.slice(0, boundary);
+            buffer = buffer.slice(boundary).replace(/^\r?\n\r?\n/, "");
+
+            let event = "message";
+            const data = [];
+            for (const line of raw.split(/\r?\n/)) {
+                if (line.startsWith("event:")) {
+                    event = line.slice(6).trim();
+                } else if (line.startsWith("data:")) {
+                    data.push(line.slice(5).replace(/^ /, ""));
+                }
+            }
+            onEvent(event, data.join("\n"));
+        }
+    }
+}
+
+function renderAssistant(div, text) {
+    const box = document.getElementById("chatBox");
+    div.innerHTML = marked.parse(text);
+    box.scrollTop = box.scrollHeight;
+}
+
 function appendMessage(text, type) {
     const box = document.getElementById("chatBox");
     const div = document.createElement("div");
@@ -76,4 +125,5 @@ function appendMessage(text, type) {
 
     box.appendChild(div);
     box.scrollTop = box.scrollHeight;
+    return div;
 }
@@ -0,0 +1,56 @@
+package com.example.rag.api;
+
+import com.example.rag.ingest.DatasetIngestionRunner;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Question parsing with the vocabulary of the bundled dataset.
+ */
+class QuestionFiltersTest {
+
+    private static QuestionFilters filters;
+
+    @BeforeAll
+    static void loadDataset() throws Exception {
+        filters = QuestionFilters.fromPayloads(DatasetIngestionRunner.datasetPayloads(new ObjectMapper()));
+    }
+
+    @Test
+    void findsSkinTypesBeforeSkin() {
+        assertEquals(List.of("dry", "sensitive"), filters.skinTypesIn("What suits dry, sensitive skin?"));
+        assertEquals(List.of("oily", "acne_prone"), filters.skinTypesIn("Routine for oily acne-prone skin"));
+    }
+
+    @Test
+    void findsTwoWordSkinTypesFromTheDataset() {
+        assertEquals(List.of("barrier_impaired"), filters.skinTypesIn("Help for barrier impaired skin"));
+        assertEquals(List.of("barrier_impaired"), filters.skinTypesIn("Help for barrier-impaired skin"));
+    }
+
+    @Test
+    void mapsStatedAgeToContainingRanges() {
+        assertEquals(List.of("25-40", "30-50"), filters.ageRangesIn("I'm 30 with dry skin, what should I use?"));
+        assertEquals(List.of("18-25"), filters.ageRangesIn("I am 20 years old"));
+        assertEquals(List.of("25-40", "30-50", "35-55"), filters.ageRangesIn("Routine for a 38 y.o. with wrinkles"));
+    }
+
+    @Test
+    void noStatedAgeMeansNoAgeFilter() {
+        assertEquals(List.of(), filters.ageRangesIn("Which products contain 5 actives?"));
+    }
+
+    @Test
+    void explicitRequestFieldsWin() {
+        AskRequest request = new AskRequest();
+        request.setQuestion("I'm 30 with dry skin");
+        request.setSkinTypes(List.of("oily"));
+
+        assertEquals("skin_type?=[oily] AND age_range?=[25-40, 30-50]", filters.from(request).toString());
+    }
+}
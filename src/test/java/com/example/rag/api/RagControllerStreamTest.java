@@ -0,0 +1,161 @@
+package com.example.rag.api;
+
+import com.example.rag.ingest.Embedder;
+import com.example.rag.ingest.HybridRetriever;
+import com.example.rag.ingest.LocalVectorStore;
+import com.example.rag.ingest.QdrantPoint;
+import com.example.rag.ingest.Vector;
+import com.example.rag.llm.ContextAssembler;
+import com.example.rag.llm.LlmClient;
+import com.example.rag.llm.SemanticAnswerCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/**
+ * /api/ask/stream against a chat stub that streams its answer as chunked server-sent events.
+ * The stub holds back everything after the first token until the test has seen that token
+ * in the endpoint's response, so a buffered (non-incremental) stream would time out.
+ */
+class RagControllerStreamTest {
+
+    private static final Pattern TOKEN_EVENT = Pattern.compile("event:token\ndata:(\\{.*?})\n");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CountDownLatch firstTokenSeen = new CountDownLatch(1);
+    private HttpServer chatStub;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        chatStub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        chatStub.createContext("/v1/chat/completions", exchange -> {
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                exchange.sendResponseHeaders(200, 0); // chunked
+                OutputStream out = exchange.getResponseBody();
+                sendChunk(out, "Hello");
+                if (!firstTokenSeen.await(10, TimeUnit.SECONDS)) {
+                    return;
+                }
+                sendChunk(out, " dry");
+                sendChunk(out, " skin");
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+                // Anything after [DONE] must be ignored
+                sendChunk(out, " AFTER-DONE");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // the client stopped reading at [DONE]
+            }
+        });
+        chatStub.start();
+
+        Vector vector = Vector.of(new float[]{1, 0, 0});
+        LocalVectorStore store = new LocalVectorStore();
+        store.ensureCollection("test");
+        store.upsertBatch("test", List.of(new QdrantPoint(1, vector, Map.of(
+                "doc_id", "cream-1", "content_hash", "h1", "text", "Barrier cream with ceramides for dry skin."))));
+        Embedder embedder = new Embedder() {
+            @Override
+            public Vector embed(String text) {
+                return vector;
+            }
+
+            @Override
+            public List<Vector> embedBatch(List<String> texts) {
+                return texts.stream().map(text -> vector).toList();
+            }
+        };
+
+        HybridRetriever retriever = new HybridRetriever(embedder, store, null, "test");
+        ContextAssembler contextAssembler = new ContextAssembler(3000);
+        LlmClient llmClient = new LlmClient("test-key",
+                "http://127.0.0.1:" + chatStub.getAddress().getPort() + "/v1");
+        RagController controller = new RagController(retriever, contextAssembler, llmClient,
+                new SemanticAnswerCache(0.92, 100),
+                new BatchAnswerer(retriever, contextAssembler, llmClient, 1),
+                new SlowQueryLog(5000), QuestionFilters.fromPayloads(List.of()), objectMapper);
+        mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        chatStub.stop(0);
+    }
+
+    @Test
+    void streamsTokensIncrementallyAndInOrder() throws Exception {
+        MvcResult result = mvc.perform(post("/api/ask/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"question\": \"What helps dry skin?\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockHttpServletResponse response = result.getResponse();
+
+        // The first token reaches the client while the LLM is still holding back the rest
+        String early = awaitContent(response, "\"text\":\"Hello\"");
+        assertFalse(early.contains("dry\""), early);
+        assertTrue(early.indexOf("event:context") < early.indexOf("event:token"), early);
+        firstTokenSeen.countDown();
+
+        String body = awaitContent(response, "event:done");
+        assertEquals(List.of("Hello", " dry", " skin"), tokens(body));
+        assertFalse(body.contains("AFTER-DONE"), body);
+        assertFalse(body.contains("[DONE]"), body);
+        assertFalse(body.contains("event:error"), body);
+    }
+
+    private static void sendChunk(OutputStream out, String token) throws IOException {
+        String chunk = "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + token + "\"}}]}";
+        out.write(("data: " + chunk + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static String awaitContent(MockHttpServletResponse response, String expected) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            String content = response.getContentAsString();
+            if (content.contains(expected)) {
+                return content;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Timed out waiting for " + expected + " in: " + response.getContentAsString());
+    }
+
+    private List<String> tokens(String body) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        Matcher m = TOKEN_EVENT.matcher(body);
+        while (m.find()) {
+            tokens.add(objectMapper.readTree(m.group(1)).path("text").asText());
+        }
+        return tokens;
+    }
+}
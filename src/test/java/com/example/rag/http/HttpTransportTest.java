@@ -0,0 +1,139 @@
+package com.example.rag.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Retries, Retry-After and hedging against an in-process server that answers each call
+ * according to its attempt number.
+ */
+class HttpTransportTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private HttpServer server;
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void throttledCallWaitsForRetryAfter() throws Exception {
+        start(call -> call == 1 ? new Reply(429, "slow down", 0, "1") : Reply.ok("done"));
+        HttpTransport transport = transport(Duration.ofSeconds(5), null);
+
+        long start = System.nanoTime();
+        HttpResponse<String> response = transport.send(get(), HttpResponse.BodyHandlers.ofString(), "test", "get");
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(200, response.statusCode());
+        assertEquals("done", response.body());
+        assertEquals(2, calls.get());
+        // Retry-After: 1 replaces the 10 ms backoff
+        assertTrue(elapsedMs >= 900, "retried after " + elapsedMs + " ms");
+    }
+
+    @Test
+    void serverErrorIsRetried() throws Exception {
+        start(call -> call < 3 ? new Reply(503, "unavailable", 0, null) : Reply.ok("done"));
+        HttpTransport transport = transport(Duration.ofSeconds(5), null);
+
+        HttpResponse<String> response = transport.send(get(), HttpResponse.BodyHandlers.ofString(), "test", "get");
+
+        assertEquals(200, response.statusCode());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void timedOutSendIsNotRepeated() throws Exception {
+        start(call -> new Reply(200, "late", 1000, null));
+        HttpTransport transport = transport(Duration.ofMillis(200), null);
+
+        assertThrows(HttpTimeoutException.class,
+                () -> transport.send(get(), HttpResponse.BodyHandlers.ofString(), "test", "get"));
+        assertEquals(1, calls.get());
+
+        calls.set(0);
+        assertThrows(HttpTimeoutException.class,
+                () -> transport.sendIdempotent(get(), HttpResponse.BodyHandlers.ofString(), "test", "get"));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void hedgeAnswersWhenThePrimaryIsSlow() throws Exception {
+        start(call -> call == 1 ? new Reply(200, "primary", 3000, null) : Reply.ok("hedge"));
+        HttpTransport transport = transport(Duration.ofSeconds(5), Duration.ofMillis(100));
+
+        long start = System.nanoTime();
+        HttpResponse<String> response =
+                transport.sendIdempotent(get(), HttpResponse.BodyHandlers.ofString(), "test", "get");
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("hedge", response.body());
+        assertEquals(2, calls.get());
+        assertTrue(elapsedMs < 2000, "hedge answered after " + elapsedMs + " ms");
+    }
+
+    private void start(Responder responder) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", exchange -> reply(exchange, responder.reply(calls.incrementAndGet())));
+        server.start();
+    }
+
+    private static void reply(HttpExchange exchange, Reply reply) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            Thread.sleep(reply.delayMs());
+            if (reply.retryAfter() != null) {
+                exchange.getResponseHeaders().set("Retry-After", reply.retryAfter());
+            }
+            byte[] body = reply.body().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(reply.status(), body.length);
+            exchange.getResponseBody().write(body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ignored) {
+            // The client gave up on this call (timeout or lost hedge race)
+        }
+    }
+
+    private HttpRequest get() {
+        return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/")).GET().build();
+    }
+
+    private static HttpTransport transport(Duration requestTimeout, Duration hedgeDelay) {
+        return new HttpTransport(new HttpTransport.Settings(Duration.ofSeconds(1), requestTimeout, 3,
+                Duration.ofMillis(10), Duration.ofMillis(50), hedgeDelay, false));
+    }
+
+    private interface Responder {
+        Reply reply(int call);
+    }
+
+    private record Reply(int status, String body, long delayMs, String retryAfter) {
+
+        static Reply ok(String body) {
+            return new Reply(200, body, 0, null);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.rag.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class CachingEmbedderTest {
+
+    @Test
+    void caseSpacingAndTrailingPunctuationShareAKey() {
+        assertEquals(CachingEmbedder.normalize("routine for  dry skin"),
+                CachingEmbedder.normalize("Routine for dry skin?"));
+        assertEquals(CachingEmbedder.normalize("Is retinol safe"),
+                CachingEmbedder.normalize("Is retinol safe?!"));
+    }
+
+    @Test
+    void symbolsKeepQuestionsApart() {
+        assertNotEquals(CachingEmbedder.normalize("serum for age 40"), CachingEmbedder.normalize("serum for age 40+"));
+        assertNotEquals(CachingEmbedder.normalize("cleanser with pH 5"), CachingEmbedder.normalize("cleanser with pH<5"));
+        assertNotEquals(CachingEmbedder.normalize("10 niacinamide"), CachingEmbedder.normalize("10% niacinamide"));
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.rag.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatasetIngestionRunnerTest {
+
+    @Test
+    void keywordIndexCoversOnlyDocumentsTheStoreHolds() throws Exception {
+        List<Map<String, Object>> dataset = DatasetIngestionRunner.datasetPayloads(new ObjectMapper());
+        Map<Long, String> stored = new HashMap<>();
+        for (Map<String, Object> payload : dataset.subList(0, 3)) {
+            stored.put(DatasetIngestionRunner.pointId((String) payload.get("doc_id")), (String) payload.get("content_hash"));
+        }
+        // Held by the store, but in another version than the bundled one
+        stored.put(DatasetIngestionRunner.pointId((String) dataset.get(3).get("doc_id")), "changed");
+
+        LexicalIndex index = DatasetIngestionRunner.buildLexicalIndex(new ObjectMapper(), new HashesOnly(stored));
+
+        assertEquals(3, index.size());
+        Set<Object> expected = dataset.subList(0, 3).stream().map(p -> p.get("doc_id")).collect(Collectors.toSet());
+        for (Map<String, Object> payload : dataset) {
+            List<SearchResult> hits = index.search((String) payload.get("title"), 10, SearchFilter.NONE);
+            hits.forEach(hit -> assertTrue(expected.contains(hit.getPayload().get("doc_id"))));
+        }
+    }
+
+    /**
+     * A vector store that only answers which content hashes it holds.
+     */
+    private record HashesOnly(Map<Long, String> hashes) implements VectorStore {
+
+        @Override
+        public void ensureCollection(String collectionName) {
+        }
+
+        @Override
+        public void upsertBatch(String collectionName, List<QdrantPoint> points) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<Long, String> fetchPayloadField(String collectionName, String payloadField) {
+            return hashes;
+        }
+
+        @Override
+        public void deletePoints(String collectionName, List<Long> ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<SearchResult> search(String collectionName, Vector vector, int topK, SearchFilter filter) {
+            return List.of();
+        }
+    }
+}
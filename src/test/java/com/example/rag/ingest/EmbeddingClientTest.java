@@ -0,0 +1,60 @@
+package com.example.rag.ingest;
+
+import com.example.rag.loadtest.OpenAiStub;
+import com.example.rag.loadtest.StubProfile;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * EmbeddingClient against the OpenAI stub, which serves both encoding formats.
+ */
+class EmbeddingClientTest {
+
+    private static final List<String> TEXTS = List.of(
+            "Ceramide barrier cream for dry sensitive skin",
+            "Niacinamide serum for dullness and uneven tone",
+            "Гиалуроновая кислота и увлажнение");
+
+    private static OpenAiStub stub;
+
+    @BeforeAll
+    static void startStub() throws Exception {
+        StubProfile instant = StubProfile.parse("median=0", "");
+        stub = new OpenAiStub(0, instant, instant);
+        stub.start();
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.close();
+    }
+
+    @Test
+    void floatAndBase64ResponsesDecodeToTheSameVectors() throws Exception {
+        List<Vector> floats = client(EmbeddingClient.EncodingFormat.FLOAT).embedBatch(TEXTS);
+        List<Vector> base64 = client(EmbeddingClient.EncodingFormat.BASE64).embedBatch(TEXTS);
+
+        assertEquals(TEXTS.size(), floats.size());
+        assertEquals(floats, base64);
+        assertEquals(1536, base64.get(0).dimension());
+        // Placed by "index": each text keeps its own vector
+        assertNotEquals(base64.get(0), base64.get(1));
+    }
+
+    @Test
+    void singleEmbedMatchesBatch() throws Exception {
+        EmbeddingClient client = client(EmbeddingClient.EncodingFormat.BASE64);
+
+        assertEquals(client.embedBatch(TEXTS).get(2), client.embed(TEXTS.get(2)));
+    }
+
+    private static EmbeddingClient client(EmbeddingClient.EncodingFormat format) {
+        return new EmbeddingClient("test-key", format, stub.baseUrl());
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.rag.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+
+    @Test
+    void unfilteredSearchFillsTopKPastTombstones() {
+        HnswIndex index = new HnswIndex(4, 32, 8);
+        Random random = new Random(7);
+        for (long id = 0; id < 500; id++) {
+            index.insert(id, randomVector(random), Map.of("doc_id", "doc-" + id));
+        }
+        // Leave only a handful of live points; the beam is then almost all tombstones
+        for (long id = 0; id < 490; id++) {
+            index.delete(id);
+        }
+
+        List<SearchResult> results = index.search(randomVector(random), 10);
+
+        assertEquals(10, results.size());
+    }
+
+    @Test
+    void compactionDropsTombstonesAndKeepsLivePoints() {
+        HnswIndex index = new HnswIndex(8, 64, 32);
+        Random random = new Random(11);
+        for (long id = 0; id < 300; id++) {
+            index.insert(id, randomVector(random), Map.of("doc_id", "doc-" + id));
+        }
+        for (long id = 0; id < 100; id++) {
+            index.delete(id);
+        }
+        assertEquals(100, index.tombstones());
+
+        HnswIndex compact = index.compacted();
+
+        assertEquals(0, compact.tombstones());
+        assertEquals(200, compact.size());
+        assertEquals(index.payloadField("doc_id"), compact.payloadField("doc_id"));
+    }
+
+    private static Vector randomVector(Random random) {
+        float[] values = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            values[i] = (float) random.nextGaussian();
+        }
+        return Vector.of(values);
+    }
+}
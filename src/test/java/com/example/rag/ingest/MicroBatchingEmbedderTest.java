@@ -0,0 +1,103 @@
+package com.example.rag.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class MicroBatchingEmbedderTest {
+
+    @Test
+    void concurrentQuestionsShareOneBatch() throws Exception {
+        try (MicroBatchingEmbedder batching = new MicroBatchingEmbedder(
+                new LengthEmbedder(null), Duration.ofMillis(200), 3, Duration.ofSeconds(5));
+             ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Vector>> results = new ArrayList<>();
+            for (String text : List.of("a", "bb", "ccc")) {
+                results.add(callers.submit(() -> batching.embed(text)));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i + 1, results.get(i).get().get(0));
+            }
+            assertEquals(1, batching.getBatches());
+            assertEquals(3, batching.getInputs());
+        }
+    }
+
+    @Test
+    void rejectedInputFailsOnlyItsOwnCaller() throws Exception {
+        try (MicroBatchingEmbedder batching = new MicroBatchingEmbedder(
+                new LengthEmbedder(null), Duration.ofMillis(200), 3, Duration.ofSeconds(5));
+             ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<Vector> good = callers.submit(() -> batching.embed("a"));
+            Future<Vector> bad = callers.submit(() -> batching.embed("x".repeat(LengthEmbedder.MAX_LENGTH + 1)));
+            Future<Vector> alsoGood = callers.submit(() -> batching.embed("ccc"));
+
+            assertEquals(1, good.get().get(0));
+            assertEquals(3, alsoGood.get().get(0));
+            ExecutionException failure = assertThrows(ExecutionException.class, bad::get);
+            assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+            assertEquals(1, batching.getBatches());
+        }
+    }
+
+    @Test
+    void waitIsBoundedByTimeout() {
+        CountDownLatch never = new CountDownLatch(1);
+        try (MicroBatchingEmbedder batching = new MicroBatchingEmbedder(
+                new LengthEmbedder(never), Duration.ofMillis(1), 8, Duration.ofMillis(200))) {
+            assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> assertThrows(TimeoutException.class, () -> batching.embed("stuck")));
+        }
+    }
+
+    @Test
+    void callsFailOnceTheDispatcherHasStopped() {
+        MicroBatchingEmbedder batching = new MicroBatchingEmbedder(
+                new LengthEmbedder(null), Duration.ofMillis(1), 8, Duration.ofSeconds(30));
+        batching.close();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertThrows(IllegalStateException.class, () -> batching.embed("late")));
+    }
+
+    /**
+     * One-dimensional vectors holding the text length; blocks on the latch if one is given.
+     * Like the OpenAI client, rejects the whole batch if one text is too long.
+     */
+    private record LengthEmbedder(CountDownLatch gate) implements Embedder {
+
+        static final int MAX_LENGTH = 100;
+
+        @Override
+        public Vector embed(String text) throws Exception {
+            return embedBatch(List.of(text)).get(0);
+        }
+
+        @Override
+        public List<Vector> embedBatch(List<String> texts) throws Exception {
+            if (gate != null) {
+                gate.await();
+            }
+            for (String text : texts) {
+                if (text.length() > MAX_LENGTH) {
+                    throw new IllegalArgumentException("Text of " + text.length() + " chars is too long");
+                }
+            }
+            return texts.stream().map(text -> Vector.of(new float[]{text.length()})).toList();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.rag.ingest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * QdrantService.ensureCollection against a stub that, like Qdrant, refuses to create a
+ * collection twice.
+ */
+class QdrantServiceTest {
+
+    private static final String COLLECTION = "skincare_box";
+
+    private final Set<String> collections = ConcurrentHashMap.newKeySet();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile boolean hideCollections;
+    private HttpServer server;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/collections/", this::collections);
+        server.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void secondRunReusesTheExistingCollection() throws Exception {
+        QdrantService qdrant = new QdrantService("http://127.0.0.1:" + server.getAddress().getPort());
+
+        qdrant.ensureCollection(COLLECTION);
+        requests.clear();
+        qdrant.ensureCollection(COLLECTION);
+
+        assertEquals(List.of(
+                "GET /collections/skincare_box 200",
+                "PUT /collections/skincare_box/index 200",
+                "PUT /collections/skincare_box/index 200",
+                "PUT /collections/skincare_box/index 200",
+                "PUT /collections/skincare_box/index 200"), requests);
+    }
+
+    @Test
+    void conflictOnCreateMeansTheCollectionExists() throws Exception {
+        QdrantService qdrant = new QdrantService("http://127.0.0.1:" + server.getAddress().getPort());
+
+        qdrant.ensureCollection(COLLECTION);
+        // Another ingestion creates the collection between our check and our create
+        hideCollections = true;
+        requests.clear();
+        qdrant.ensureCollection(COLLECTION);
+
+        assertEquals("GET /collections/skincare_box 404", requests.get(0));
+        assertEquals("PUT /collections/skincare_box 409", requests.get(1));
+        // Payload indexes are still ensured
+        assertEquals(6, requests.size());
+    }
+
+    private void collections(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String name = path.substring("/collections/".length());
+            int status;
+            if (name.contains("/")) {
+                status = 200;
+            } else if (method.equals("GET")) {
+                status = collections.contains(name) && !hideCollections ? 200 : 404;
+            } else {
+                status = collections.add(name) ? 200 : 409;
+            }
+            requests.add(method + " " + path + " " + status);
+
+            String json = switch (status) {
+                case 404 -> "{\"status\":{\"error\":\"Not found: Collection `" + name + "` doesn't exist!\"}}";
+                case 409 -> "{\"status\":{\"error\":\"Wrong input: Collection `" + name + "` already exists!\"}}";
+                default -> "{\"result\":true,\"status\":\"ok\"}";
+            };
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+}
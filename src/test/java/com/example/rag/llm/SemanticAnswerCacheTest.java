@@ -0,0 +1,77 @@
+package com.example.rag.llm;
+
+import com.example.rag.ingest.SearchResult;
+import com.example.rag.ingest.Vector;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SemanticAnswerCacheTest {
+
+    private static final Vector QUESTION = Vector.of(new float[]{1, 0, 0});
+    // cos = 0.995 with QUESTION
+    private static final Vector PARAPHRASE = Vector.of(new float[]{1, 0.1f, 0});
+    // cos = 0.707 with QUESTION
+    private static final Vector OTHER_QUESTION = Vector.of(new float[]{1, 1, 0});
+
+    private final SemanticAnswerCache cache = new SemanticAnswerCache(0.92, 100);
+
+    @Test
+    void similarQuestionWithUnchangedDocumentsHits() {
+        cache.put(QUESTION, List.of(hit("cream", "h1"), hit("toner", "h2")), "Use the cream.");
+
+        assertEquals("Use the cream.", cache.lookup(PARAPHRASE, List.of(hit("toner", "h2"), hit("cream", "h1"))));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void dissimilarQuestionMisses() {
+        cache.put(QUESTION, List.of(hit("cream", "h1")), "Use the cream.");
+
+        assertNull(cache.lookup(OTHER_QUESTION, List.of(hit("cream", "h1"))));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void citedDocumentMissingFromHitsMissesButKeepsEntry() {
+        cache.put(QUESTION, List.of(hit("cream", "h1")), "Use the cream.");
+
+        assertNull(cache.lookup(QUESTION, List.of(hit("toner", "h2"))));
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getInvalidations());
+    }
+
+    @Test
+    void changedContentHashInvalidatesEntry() {
+        cache.put(QUESTION, List.of(hit("cream", "h1")), "Use the cream.");
+
+        assertNull(cache.lookup(QUESTION, List.of(hit("cream", "h1-reingested"))));
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(0, cache.size());
+        // Stays gone even if the old text comes back
+        assertNull(cache.lookup(QUESTION, List.of(hit("cream", "h1"))));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        SemanticAnswerCache small = new SemanticAnswerCache(0.92, 2);
+        small.put(QUESTION, List.of(hit("cream", "h1")), "first");
+        small.put(OTHER_QUESTION, List.of(hit("toner", "h2")), "second");
+        small.lookup(QUESTION, List.of(hit("cream", "h1")));   // first is now more recent
+
+        small.put(Vector.of(new float[]{0, 0, 1}), List.of(hit("balm", "h3")), "third");
+
+        assertEquals(1, small.getEvictions());
+        assertEquals("first", small.lookup(QUESTION, List.of(hit("cream", "h1"))));
+        assertNull(small.lookup(OTHER_QUESTION, List.of(hit("toner", "h2"))));
+    }
+
+    private static SearchResult hit(String docId, String contentHash) {
+        return new SearchResult(0.9, Map.of("doc_id", docId, "content_hash", contentHash, "text", docId));
+    }
+}
@@ -0,0 +1,322 @@
+package com.example.rag.loadtest;
+
+import com.example.rag.RagApplication;
+import com.example.rag.ingest.DatasetIngestionRunner;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Load test of the real Spring app with OpenAI and Qdrant replaced by in-process stubs,
+ * so /api/ask can be pushed hard without API costs or a Qdrant instance:
+ * - starts {@link OpenAiStub} and {@link QdrantStub}
+ * - starts the app as a child JVM pointed at them (OPENAI_BASE_URL, QDRANT_URL), unless
+ *   LOAD_APP_URL names an app that is already running (and configured with the stub ports)
+ * - runs LOAD_CONCURRENCY closed-loop clients for LOAD_WARMUP_SECONDS, then measures for
+ *   LOAD_DURATION_SECONDS and prints throughput and latency percentiles
+ *
+ * Lives in the test sources (with the stubs), so none of it ships in the application jar.
+ *
+ * Run with: mvn -Ploadtest test-compile exec:exec
+ *
+ * Settings (env):
+ * - LOAD_ENDPOINT: "ask" (default) or "stream"; for stream, time to first token is reported too
+ * - LOAD_CONCURRENCY (16), LOAD_WARMUP_SECONDS (5), LOAD_DURATION_SECONDS (30)
+ * - LOAD_QUESTIONS: file with one question per line (default: a built-in set)
+ * - LOAD_UNIQUE_QUESTIONS: "true" makes every request a new question, defeating the app's caches
+ * - STUB_EMBEDDINGS, STUB_CHAT, STUB_QDRANT: stub behaviour, see {@link StubProfile};
+ *   the chat stub also takes tokens (answer length) and tokenMs (time per streamed token)
+ * - STUB_OPENAI_PORT, STUB_QDRANT_PORT: fixed stub ports (default: any free port)
+ *
+ * With "--stubs-only" it just starts the stubs and keeps them running.
+ */
+public class LoadDriver {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadDriver.class);
+
+    private static final List<String> DEFAULT_QUESTIONS = List.of(
+            "I am 35 with dry sensitive skin, what evening routine can I build from this box?",
+            "Which products help with dullness and uneven tone?",
+            "Can I use the cleansing balm to remove sunscreen?",
+            "What is a good morning routine for oily acne-prone skin?",
+            "Which products contain ceramides?",
+            "How often should I exfoliate combination skin?",
+            "What should I use for early signs of aging?",
+            "Is sea buckthorn oil good for dehydrated skin?");
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(120);
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(180);
+
+    public static void main(String[] args) throws Exception {
+        StubProfile embeddingsProfile = StubProfile.parse(System.getenv("STUB_EMBEDDINGS"), "median=40,p99=150");
+        StubProfile chatProfile = StubProfile.parse(System.getenv("STUB_CHAT"), "median=400,p99=1500,tokens=80,tokenMs=10");
+        StubProfile qdrantProfile = StubProfile.parse(System.getenv("STUB_QDRANT"), "median=3,p99=20");
+
+        List<Map<String, Object>> payloads = DatasetIngestionRunner.datasetPayloads(new ObjectMapper());
+        try (OpenAiStub openAi = new OpenAiStub(intEnv("STUB_OPENAI_PORT", 0), embeddingsProfile, chatProfile);
+             QdrantStub qdrant = new QdrantStub(intEnv("STUB_QDRANT_PORT", 0), qdrantProfile, payloads)) {
+            openAi.start();
+            qdrant.start();
+            log.info("OpenAI stub at {} (embeddings: {}; chat: {})", openAi.baseUrl(), embeddingsProfile, chatProfile);
+            log.info("Qdrant stub at {} ({})", qdrant.address(), qdrantProfile);
+
+            if (Arrays.asList(args).contains("--stubs-only")) {
+                log.info("Stubs running; start the app with OPENAI_BASE_URL={} QDRANT_URL={} OPENAI_API_KEY=stub",
+                        openAi.baseUrl(), qdrant.address());
+                Thread.currentThread().join();
+            }
+
+            String appUrl = System.getenv("LOAD_APP_URL");
+            Process app = null;
+            try {
+                if (appUrl == null || appUrl.isBlank()) {
+                    int port = freePort();
+                    app = launchApp(port, openAi.baseUrl(), qdrant.address());
+                    appUrl = "http://127.0.0.1:" + port;
+                }
+                HttpClient client = HttpClient.newBuilder()
+                        .executor(Executors.newVirtualThreadPerTaskExecutor())
+                        .connectTimeout(Duration.ofSeconds(5))
+                        .build();
+                awaitHealthy(client, appUrl, app);
+
+                boolean stream = "stream".equalsIgnoreCase(stringEnv("LOAD_ENDPOINT", "ask"));
+                Load load = new Load(client, appUrl + (stream ? "/api/ask/stream" : "/api/ask"), stream,
+                        questions(), Boolean.parseBoolean(stringEnv("LOAD_UNIQUE_QUESTIONS", "false")));
+                int concurrency = intEnv("LOAD_CONCURRENCY", 16);
+
+                log.info("Warming up for {} s", intEnv("LOAD_WARMUP_SECONDS", 5));
+                load.run(concurrency, Duration.ofSeconds(intEnv("LOAD_WARMUP_SECONDS", 5)));
+                log.info("Measuring {} with {} clients for {} s", load.url, concurrency, intEnv("LOAD_DURATION_SECONDS", 30));
+                Result result = load.run(concurrency, Duration.ofSeconds(intEnv("LOAD_DURATION_SECONDS", 30)));
+
+                log.info("Results:\n{}", result.report(concurrency).strip());
+                log.info("Embeddings/chat stub: {}", openAi.stats());
+                log.info("Qdrant stub: {}", qdrant.stats());
+            } finally {
+                if (app != null) {
+                    app.destroy();
+                    app.waitFor();
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the app on the given port with the current classpath, its outbound calls going to the stubs.
+     * VECTOR_STORE is forced to qdrant: an in-process store would ingest stub embeddings into the
+     * local embedding store.
+     */
+    private static Process launchApp(int port, String openAiBaseUrl, String qdrantUrl) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java,
+                "-cp", System.getProperty("java.class.path"),
+                RagApplication.class.getName(),
+                "--server.port=" + port);
+        builder.environment().put("OPENAI_API_KEY", "stub");
+        builder.environment().put("OPENAI_BASE_URL", openAiBaseUrl);
+        builder.environment().put("QDRANT_URL", qdrantUrl);
+        builder.environment().put("VECTOR_STORE", "qdrant");
+
+        Path logFile = Path.of("target", "loadtest-app.log");
+        Files.createDirectories(logFile.getParent());
+        builder.redirectErrorStream(true).redirectOutput(logFile.toFile());
+        log.info("Starting the app on port {} (log: {})", port, logFile);
+        return builder.start();
+    }
+
+    private static void awaitHealthy(HttpClient client, String appUrl, Process app) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(appUrl + "/actuator/health"))
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (app != null && !app.isAlive()) {
+                throw new IllegalStateException("The app exited with code " + app.exitValue() + "; see target/loadtest-app.log");
+            }
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("The app at " + appUrl + " did not become healthy in " + STARTUP_TIMEOUT);
+    }
+
+    private static List<String> questions() throws IOException {
+        String file = System.getenv("LOAD_QUESTIONS");
+        if (file == null || file.isBlank()) {
+            return DEFAULT_QUESTIONS;
+        }
+        try (Stream<String> lines = Files.lines(Path.of(file.trim()))) {
+            return lines.map(String::trim).filter(line -> !line.isEmpty()).toList();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String stringEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        return Integer.parseInt(stringEnv(name, Integer.toString(defaultValue)));
+    }
+
+    /**
+     * Closed-loop clients: each sends its next request as soon as the previous one completes.
+     */
+    private static final class Load {
+
+        private final HttpClient client;
+        private final String url;
+        private final boolean stream;
+        private final List<String> questions;
+        private final boolean unique;
+        private final AtomicLong sequence = new AtomicLong();
+        private final ObjectMapper objectMapper = new ObjectMapper();
+
+        Load(HttpClient client, String url, boolean stream, List<String> questions, boolean unique) {
+            this.client = client;
+            this.url = url;
+            this.stream = stream;
+            this.questions = questions;
+            this.unique = unique;
+        }
+
+        Result run(int concurrency, Duration duration) throws Exception {
+            Result result = new Result(duration);
+            long deadline = System.nanoTime() + duration.toNanos();
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < concurrency; i++) {
+                    clients.execute(() -> {
+                        while (System.nanoTime() < deadline) {
+                            result.add(send());
+                        }
+                    });
+                }
+            }
+            return result;
+        }
+
+        private Sample send() {
+            long n = sequence.getAndIncrement();
+            String question = questions.get((int) (n % questions.size()));
+            if (unique) {
+                question = question + " (" + n + ")";
+            }
+            long start = System.nanoTime();
+            try {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                        .timeout(REQUEST_TIMEOUT)
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(
+                                objectMapper.writeValueAsBytes(Map.of("question", question))))
+                        .build();
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                String status = Integer.toString(response.statusCode());
+                long firstToken = -1;
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (firstToken < 0 && stream && line.startsWith("event:token")) {
+                            firstToken = System.nanoTime() - start;
+                        } else if (stream && line.startsWith("event:error")) {
+                            // the stream has already answered 200; failures come as an event
+                            status = "error-event";
+                        }
+                    }
+                }
+                return new Sample(status, System.nanoTime() - start, firstToken);
+            } catch (Exception e) {
+                return new Sample(e.getClass().getSimpleName(), System.nanoTime() - start, -1);
+            }
+        }
+    }
+
+    private record Sample(String status, long nanos, long firstTokenNanos) {
+    }
+
+    private static final class Result {
+
+        private final Duration duration;
+        private final List<Long> latencies = new ArrayList<>();
+        private final List<Long> firstTokens = new ArrayList<>();
+        private final Map<String, Long> statuses = new TreeMap<>();
+
+        Result(Duration duration) {
+            this.duration = duration;
+        }
+
+        synchronized void add(Sample sample) {
+            statuses.merge(sample.status(), 1L, Long::sum);
+            if (sample.status().equals("200")) {
+                latencies.add(sample.nanos());
+                if (sample.firstTokenNanos() >= 0) {
+                    firstTokens.add(sample.firstTokenNanos());
+                }
+            }
+        }
+
+        synchronized String report(int concurrency) {
+            long total = statuses.values().stream().mapToLong(Long::longValue).sum();
+            double seconds = duration.toMillis() / 1000.0;
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%nRequests: %d in %.0f s with %d clients: %.1f req/s (%.1f ok/s)%n",
+                    total, seconds, concurrency, total / seconds, latencies.size() / seconds));
+            sb.append("Status: ").append(statuses).append('\n');
+            sb.append("Latency ms:     ").append(percentiles(latencies)).append('\n');
+            if (!firstTokens.isEmpty()) {
+                sb.append("First token ms: ").append(percentiles(firstTokens)).append('\n');
+            }
+            return sb.toString();
+        }
+
+        private static String percentiles(List<Long> nanos) {
+            if (nanos.isEmpty()) {
+                return "no successful requests";
+            }
+            long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+            return String.format("p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f",
+                    quantile(sorted, 0.50), quantile(sorted, 0.90), quantile(sorted, 0.99),
+                    quantile(sorted, 0.999), sorted[sorted.length - 1] / 1e6);
+        }
+
+        private static double quantile(long[] sorted, double q) {
+            int index = (int) Math.ceil(q * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+}
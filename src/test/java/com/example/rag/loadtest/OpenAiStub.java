@@ -0,0 +1,167 @@
+package com.example.rag.loadtest;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Stand-in for the OpenAI API under /v1: embeddings (float or base64) and chat completions,
+ * plain or streamed.
+ *
+ * Embeddings are random unit vectors seeded by the input text, so the same question always
+ * gets the same vector (and the app's caches behave as with the real API). Chat answers are
+ * a canned sentence; the chat profile's "tokens" option sets the answer length and "tokenMs"
+ * the time per token, on top of the profile latency (time to first token).
+ */
+public class OpenAiStub extends StubServer {
+
+    private static final int DIMENSION = 1536;
+    private static final String[] ANSWER_WORDS = ("For dry sensitive skin, start with the cleansing balm, "
+            + "follow with a hydrating toner and finish with a barrier cream in the evening.").split(" ");
+
+    private final double answerTokens;
+    private final double tokenMs;
+
+    public OpenAiStub(int port, StubProfile embeddings, StubProfile chat) throws IOException {
+        super(port);
+        this.answerTokens = chat.option("tokens", 80);
+        this.tokenMs = chat.option("tokenMs", 10);
+        route("/v1/embeddings", embeddings, this::embeddings);
+        route("/v1/chat/completions", chat, this::chat);
+    }
+
+    /**
+     * API root to hand to the clients (OPENAI_BASE_URL).
+     */
+    public String baseUrl() {
+        return address() + "/v1";
+    }
+
+    private void embeddings(HttpExchange exchange, byte[] body) throws IOException {
+        JsonNode request = objectMapper.readTree(body);
+        List<String> inputs = new ArrayList<>();
+        JsonNode input = request.path("input");
+        if (input.isArray()) {
+            input.forEach(node -> inputs.add(node.asText()));
+        } else {
+            inputs.add(input.asText());
+        }
+        boolean base64 = "base64".equals(request.path("encoding_format").asText("float"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long tokens = 0;
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeStringField("object", "list");
+            gen.writeArrayFieldStart("data");
+            for (int i = 0; i < inputs.size(); i++) {
+                float[] vector = vectorFor(inputs.get(i));
+                tokens += inputs.get(i).length() / 4 + 1;
+                gen.writeStartObject();
+                gen.writeStringField("object", "embedding");
+                gen.writeNumberField("index", i);
+                if (base64) {
+                    ByteBuffer bytes = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+                    bytes.asFloatBuffer().put(vector);
+                    gen.writeStringField("embedding", Base64.getEncoder().encodeToString(bytes.array()));
+                } else {
+                    gen.writeArrayFieldStart("embedding");
+                    for (float value : vector) {
+                        gen.writeNumber(value);
+                    }
+                    gen.writeEndArray();
+                }
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeStringField("model", request.path("model").asText());
+            gen.writeObjectFieldStart("usage");
+            gen.writeNumberField("prompt_tokens", tokens);
+            gen.writeNumberField("total_tokens", tokens);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+        sendJson(exchange, 200, out.toByteArray());
+    }
+
+    private void chat(HttpExchange exchange, byte[] body) throws IOException, InterruptedException {
+        JsonNode request = objectMapper.readTree(body);
+        String model = request.path("model").asText();
+        int promptChars = 0;
+        for (JsonNode message : request.path("messages")) {
+            promptChars += message.path("content").asText().length();
+        }
+        int promptTokens = promptChars / 4 + 1;
+        int completionTokens = (int) answerTokens;
+
+        if (!request.path("stream").asBoolean(false)) {
+            Thread.sleep((long) (completionTokens * tokenMs));
+            Map<String, Object> response = Map.of(
+                    "id", "chatcmpl-stub",
+                    "object", "chat.completion",
+                    "model", model,
+                    "choices", List.of(Map.of(
+                            "index", 0,
+                            "message", Map.of("role", "assistant", "content", answer(completionTokens)),
+                            "finish_reason", "stop")),
+                    "usage", Map.of(
+                            "prompt_tokens", promptTokens,
+                            "completion_tokens", completionTokens,
+                            "total_tokens", promptTokens + completionTokens));
+            sendJson(exchange, 200, objectMapper.writeValueAsBytes(response));
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        for (int i = 0; i < completionTokens; i++) {
+            String token = (i == 0 ? "" : " ") + ANSWER_WORDS[i % ANSWER_WORDS.length];
+            Map<String, Object> chunk = Map.of(
+                    "id", "chatcmpl-stub",
+                    "object", "chat.completion.chunk",
+                    "model", model,
+                    "choices", List.of(Map.of("index", 0, "delta", Map.of("content", token))));
+            out.write(("data: " + objectMapper.writeValueAsString(chunk) + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Thread.sleep((long) tokenMs);
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String answer(int tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tokens; i++) {
+            sb.append(i == 0 ? "" : " ").append(ANSWER_WORDS[i % ANSWER_WORDS.length]);
+        }
+        return sb.toString();
+    }
+
+    private static float[] vectorFor(String text) {
+        Random random = new Random(text.hashCode());
+        float[] vector = new float[DIMENSION];
+        double norm = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+}
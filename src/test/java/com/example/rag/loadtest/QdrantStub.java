@@ -0,0 +1,77 @@
+package com.example.rag.loadtest;
+
+import com.example.rag.ingest.DatasetIngestionRunner;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stand-in for Qdrant's search API: POST /collections/{name}/points/search and
+ * /points/search/batch. Hits are dataset payloads (so the app builds real prompts), picked
+ * by the query vector so the same question gets the same hits; filters are ignored.
+ * /points/scroll returns every payload in one page, as if the dataset had been ingested.
+ * Any other collection request is answered with an empty success.
+ */
+public class QdrantStub extends StubServer {
+
+    private final List<Map<String, Object>> payloads;
+
+    public QdrantStub(int port, StubProfile profile, List<Map<String, Object>> payloads) throws IOException {
+        super(port);
+        this.payloads = payloads;
+        route("/collections/", profile, this::collections);
+    }
+
+    private void collections(HttpExchange exchange, byte[] body) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        Map<String, Object> response = new LinkedHashMap<>();
+        if (path.endsWith("/points/search")) {
+            response.put("result", hits(objectMapper.readTree(body)));
+        } else if (path.endsWith("/points/scroll")) {
+            List<Map<String, Object>> points = new ArrayList<>(payloads.size());
+            for (Map<String, Object> payload : payloads) {
+                points.add(Map.of("id", pointId(payload), "payload", payload));
+            }
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("points", points);
+            page.put("next_page_offset", null);
+            response.put("result", page);
+        } else if (path.endsWith("/points/search/batch")) {
+            List<Object> results = new ArrayList<>();
+            for (JsonNode search : objectMapper.readTree(body).path("searches")) {
+                results.add(hits(search));
+            }
+            response.put("result", results);
+        } else {
+            response.put("result", true);
+        }
+        response.put("status", "ok");
+        response.put("time", 0.001);
+        sendJson(exchange, 200, objectMapper.writeValueAsBytes(response));
+    }
+
+    private static long pointId(Map<String, Object> payload) {
+        return DatasetIngestionRunner.pointId((String) payload.get("doc_id"));
+    }
+
+    private List<Map<String, Object>> hits(JsonNode search) {
+        int top = Math.min(search.path("top").asInt(search.path("limit").asInt(10)), payloads.size());
+        int first = Math.floorMod(search.path("vector").hashCode(), payloads.size());
+        List<Map<String, Object>> hits = new ArrayList<>(top);
+        for (int i = 0; i < top; i++) {
+            Map<String, Object> hit = new LinkedHashMap<>();
+            int doc = (first + i) % payloads.size();
+            hit.put("id", pointId(payloads.get(doc)));
+            hit.put("version", 1);
+            hit.put("score", 0.8 - 0.03 * i);
+            hit.put("payload", payloads.get(doc));
+            hits.add(hit);
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.rag.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency and fault settings of one stubbed endpoint, parsed from a spec such as
+ * "median=40,p99=150,errors=0.01,burst429=30/2":
+ * - median, p99: response latency in ms; latencies are log-normal with these two quantiles
+ * - errors: fraction of requests answered with HTTP 500
+ * - burst429: every N seconds, all requests get 429 (with Retry-After) for M seconds ("N/M")
+ * Other keys are endpoint-specific and read with {@link #option}.
+ */
+public final class StubProfile {
+
+    // Standard normal quantile of 0.99
+    private static final double Z_99 = 2.3263;
+
+    private final String spec;
+    private final Map<String, String> options;
+    private final double mu;
+    private final double sigma;
+    private final double errorRate;
+    private final long burstEveryMs;
+    private final long burstLengthMs;
+
+    private StubProfile(String spec, Map<String, String> options) {
+        this.spec = spec;
+        this.options = options;
+        double median = Math.max(0.1, option("median", 10));
+        double p99 = Math.max(median, option("p99", median));
+        this.mu = Math.log(median);
+        this.sigma = Math.log(p99 / median) / Z_99;
+        this.errorRate = option("errors", 0);
+
+        String burst = options.get("burst429");
+        if (burst == null || burst.isBlank() || burst.equals("0")) {
+            burstEveryMs = 0;
+            burstLengthMs = 0;
+        } else {
+            String[] parts = burst.split("/");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("burst429 must be <everySeconds>/<lengthSeconds>: " + burst);
+            }
+            burstEveryMs = (long) (Double.parseDouble(parts[0]) * 1000);
+            burstLengthMs = (long) (Double.parseDouble(parts[1]) * 1000);
+        }
+    }
+
+    /**
+     * Parse a spec; keys missing from it are taken from the defaults spec.
+     */
+    public static StubProfile parse(String spec, String defaults) {
+        Map<String, String> options = new LinkedHashMap<>();
+        putAll(options, defaults);
+        if (spec != null) {
+            putAll(options, spec);
+        }
+        StringBuilder merged = new StringBuilder();
+        options.forEach((k, v) -> merged.append(merged.isEmpty() ? "" : ",").append(k).append('=').append(v));
+        return new StubProfile(merged.toString(), options);
+    }
+
+    public double option(String name, double defaultValue) {
+        String value = options.get(name);
+        return value == null || value.isBlank() ? defaultValue : Double.parseDouble(value);
+    }
+
+    long sampleLatencyMs() {
+        return Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    boolean failsNext() {
+        return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    /**
+     * Seconds until the current 429 burst ends, or 0 outside a burst.
+     */
+    long throttledForSeconds(long elapsedMs) {
+        if (burstEveryMs <= 0) {
+            return 0;
+        }
+        long intoCycle = elapsedMs % burstEveryMs;
+        // The first burst starts one period in, so warmup isn't throttled
+        if (elapsedMs < burstEveryMs || intoCycle >= burstLengthMs) {
+            return 0;
+        }
+        return Math.max(1, (burstLengthMs - intoCycle + 999) / 1000);
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    private static void putAll(Map<String, String> options, String spec) {
+        for (String part : spec.split(",")) {
+            if (part.isBlank()) {
+                continue;
+            }
+            int eq = part.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value in stub spec: " + part);
+            }
+            options.put(part.substring(0, eq).trim(), part.substring(eq + 1).trim());
+        }
+    }
+}
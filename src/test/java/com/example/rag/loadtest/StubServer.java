@@ -0,0 +1,91 @@
+package com.example.rag.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process HTTP server for a stubbed upstream. Every route applies its {@link StubProfile}:
+ * 429 during bursts, then the sampled latency, then a 500 for the configured error fraction,
+ * and only then the real (canned) response.
+ */
+abstract class StubServer implements AutoCloseable {
+
+    protected final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpServer server;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    StubServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    protected void route(String path, StubProfile profile, Handler handler) {
+        server.createContext(path, exchange -> {
+            try (exchange) {
+                byte[] body = exchange.getRequestBody().readAllBytes();
+                requests.incrementAndGet();
+
+                long elapsedMs = (System.nanoTime() - startNanos) / 1_000_000;
+                long retryAfter = profile.throttledForSeconds(elapsedMs);
+                if (retryAfter > 0) {
+                    throttled.incrementAndGet();
+                    exchange.getResponseHeaders().add("Retry-After", Long.toString(retryAfter));
+                    sendJson(exchange, 429, error("Rate limit reached (stub)", "rate_limit_exceeded"));
+                    return;
+                }
+
+                Thread.sleep(profile.sampleLatencyMs());
+                if (profile.failsNext()) {
+                    failed.incrementAndGet();
+                    sendJson(exchange, 500, error("Internal error (stub)", "server_error"));
+                    return;
+                }
+                handler.handle(exchange, body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public String address() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public String stats() {
+        return requests.get() + " requests, " + throttled.get() + " throttled (429), " + failed.get() + " failed (500)";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    protected void sendJson(HttpExchange exchange, int status, byte[] json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length);
+        exchange.getResponseBody().write(json);
+    }
+
+    private byte[] error(String message, String type) throws IOException {
+        return objectMapper.writeValueAsBytes(Map.of("error", Map.of("message", message, "type", type)));
+    }
+
+    interface Handler {
+        void handle(HttpExchange exchange, byte[] body) throws IOException, InterruptedException;
+    }
+}